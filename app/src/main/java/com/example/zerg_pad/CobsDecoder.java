@@ -0,0 +1,92 @@
+package com.example.zerg_pad;
+
+/**
+ * Streaming decoder for COBS (Consistent Overhead Byte Stuffing) frames, each ended by a
+ * 0x00 delimiter, as written by {@link PacketEncoder#cobsEncodeInPlace}.
+ *
+ * COBS never puts 0x00 inside an encoded frame, so after lost or corrupted bytes the next
+ * delimiter is always a real frame boundary: at most the damaged frame and, if its delimiter
+ * was lost, the one after it are dropped. Integrity of the content is left to the frame
+ * itself (the CRC in protocol v2).
+ *
+ * Kept in plain Java with no allocation after construction, as the reference for the
+ * firmware side. Not thread-safe.
+ */
+public final class CobsDecoder {
+    public interface FrameListener {
+        /** {@code frame} is reused; only its first {@code length} bytes are valid and only during the call. */
+        void onFrame(byte[] frame, int length);
+    }
+
+    private final byte[] frame;
+    private int length;
+    // Bytes still to copy in the current block; 0 when the next byte is a block code
+    private int remaining;
+    // The current block ends with an implicit zero, written if another block follows
+    private boolean zeroPending;
+    // Skip everything up to the next delimiter
+    private boolean discarding;
+
+    private long frames;
+    private long errors;
+
+    public CobsDecoder(int maxFrameSize) {
+        frame = new byte[maxFrameSize];
+    }
+
+    public void decode(byte[] src, int offset, int count, FrameListener listener) {
+        for (int i = offset; i < offset + count; i++) {
+            int b = src[i] & 0xFF;
+            if (b == 0) {
+                endFrame(listener);
+            } else if (discarding) {
+                // Wait for the delimiter
+            } else if (remaining > 0) {
+                append((byte) b);
+                remaining--;
+            } else {
+                if (zeroPending) append((byte) 0);
+                remaining = b - 1;
+                zeroPending = b < 0xFF;
+            }
+        }
+    }
+
+    /** Frames delivered so far. */
+    public long getFrames() {
+        return frames;
+    }
+
+    /** Frames dropped as truncated or too long. */
+    public long getErrors() {
+        return errors;
+    }
+
+    /** Drops a partly received frame; the next byte starts a new one. */
+    public void reset() {
+        length = 0;
+        remaining = 0;
+        zeroPending = false;
+        discarding = false;
+    }
+
+    private void append(byte b) {
+        if (discarding) return;
+        if (length == frame.length) {
+            discarding = true;
+            return;
+        }
+        frame[length++] = b;
+    }
+
+    private void endFrame(FrameListener listener) {
+        if (discarding || remaining > 0) {
+            // Too long, or a block cut short by the delimiter
+            errors++;
+        } else if (length > 0 || zeroPending) {
+            frames++;
+            listener.onFrame(frame, length);
+        }
+        reset();
+    }
+}
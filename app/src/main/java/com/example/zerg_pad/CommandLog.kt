@@ -0,0 +1,52 @@
+package com.example.zerg_pad
+
+/**
+ * History of the last [capacity] sent commands for the on-screen event log.
+ *
+ * The log shows logical commands, always in v1 notation ([PacketEncoder.encodeCommand]),
+ * whatever protocol the link negotiated: the sequence number and CRC of a v2/v3 frame are
+ * only assigned when the writer sends it, and a queued stick may be replaced before that.
+ *
+ * [add] only stores the packed command, so it is cheap at any send rate; the text is
+ * built by [render] when the log is actually drawn, newest line first, into a reusable
+ * buffer of [maxTextSize] chars. Safe to add on one thread and render on another.
+ */
+class CommandLog(private val capacity: Int = DEFAULT_CAPACITY) {
+    private val commands = IntArray(capacity)
+    private var next = 0
+    private var count = 0
+    private val frame = ByteArray(PacketEncoder.MAX_FRAME_SIZE)
+
+    /** Chars needed by [render] for a full log. */
+    val maxTextSize = capacity * (PacketEncoder.MAX_HEX_TEXT_SIZE + 1)
+
+    companion object {
+        const val DEFAULT_CAPACITY = 5
+    }
+
+    @Synchronized
+    fun add(command: Int) {
+        commands[next] = command
+        next = (next + 1) % capacity
+        if (count < capacity) count++
+    }
+
+    /** Writes one hex line per command ([PacketEncoder.formatHex]) and returns the length. */
+    @Synchronized
+    fun render(dst: CharArray): Int {
+        var pos = 0
+        for (i in 1..count) {
+            if (i > 1) dst[pos++] = '\n'
+            val command = commands[(next - i + capacity) % capacity]
+            val frameLength = PacketEncoder.encodeCommand(frame, 0, command)
+            pos += PacketEncoder.formatHex(frame, 0, frameLength, dst, pos)
+        }
+        return pos
+    }
+
+    @Synchronized
+    fun clear() {
+        next = 0
+        count = 0
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.zerg_pad
+
+/**
+ * Duration of every connect attempt, split by how the socket was opened, so the effect
+ * of the cached RFCOMM channel (see [RfcommTransport]) can be measured on a real device.
+ * Thread-safe.
+ */
+class ConnectStats {
+    enum class Method {
+        /** Direct connect to the channel remembered in [RfcommChannelCache]. */
+        CACHED_CHANNEL,
+        /** Regular connect with an SDP lookup of the SPP service. */
+        SDP
+    }
+
+    private val attempts = IntArray(Method.values().size)
+    private val successes = IntArray(Method.values().size)
+    private val successNanos = LongArray(Method.values().size)
+    private val lastNanos = LongArray(Method.values().size)
+
+    @Synchronized
+    fun record(method: Method, nanos: Long, success: Boolean) {
+        val i = method.ordinal
+        attempts[i]++
+        lastNanos[i] = nanos
+        if (success) {
+            successes[i]++
+            successNanos[i] += nanos
+        }
+    }
+
+    @Synchronized
+    fun attempts(method: Method): Int = attempts[method.ordinal]
+
+    @Synchronized
+    fun successes(method: Method): Int = successes[method.ordinal]
+
+    /** Mean duration of the successful attempts, 0 if there were none. */
+    @Synchronized
+    fun averageMillis(method: Method): Long {
+        val i = method.ordinal
+        return if (successes[i] == 0) 0L else successNanos[i] / successes[i] / 1_000_000L
+    }
+
+    @Synchronized
+    fun lastMillis(method: Method): Long = lastNanos[method.ordinal] / 1_000_000L
+}
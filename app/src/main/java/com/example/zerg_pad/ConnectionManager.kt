@@ -0,0 +1,232 @@
+package com.example.zerg_pad
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import java.io.IOException
+import java.io.OutputStream
+import java.net.SocketTimeoutException
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Owns the link to the robot and runs every connect attempt off the caller's thread.
+ *
+ * [connect] returns immediately; the blocking SDP lookup / RFCOMM connect runs on [scope]
+ * and is aborted by closing the link if it takes longer than [connectTimeoutMillis] or if
+ * [cancel] / [close] / a newer [connect] comes first. Progress is reported through
+ * [Listener.onStateChanged]:
+ *
+ * ```
+ * IDLE -> CONNECTING -> CONNECTED -> DEGRADED -> RECONNECTING -> CONNECTED
+ * ```
+ *
+ * A failed CONNECTING or RECONNECTING attempt goes to RECONNECTING (with the error) if
+ * it failed with an [IOException] and a [backoff] is set, otherwise to IDLE (with the
+ * error, e.g. a missing Bluetooth permission).
+ *
+ * Those retries, and the reconnect after DEGRADED, start after
+ * [ReconnectBackoff.nextDelayMillis] and go on until one succeeds or [cancel] / [close]
+ * is called.
+ *
+ * With a [protocolVersion] above v1 each new link first runs [ProtocolHandshake] (within
+ * the connect timeout); the agreed version is in [negotiatedVersion] once CONNECTED.
+ *
+ * [State.CLOSED] is terminal. Listener calls are made in transition order from whichever thread
+ * caused the transition and must not block.
+ */
+class ConnectionManager(
+    private val scope: CoroutineScope,
+    private val connectTimeoutMillis: Long = DEFAULT_CONNECT_TIMEOUT,
+    private val backoff: ReconnectBackoff? = ReconnectBackoff(),
+    private val protocolVersion: Int = PacketEncoder.PROTOCOL_V1,
+    private val handshakeTimeoutMillis: Long = ProtocolHandshake.DEFAULT_TIMEOUT,
+    private val listener: Listener
+) {
+    enum class State {
+        /** Not connected and not trying to. */
+        IDLE,
+        /** First attempt for the current [connect] call. */
+        CONNECTING,
+        CONNECTED,
+        /** Writes failed and the link was dropped, see [markDegraded]; waiting to reconnect. */
+        DEGRADED,
+        /** Retrying after a lost link or a failed attempt, see [reconnect]. */
+        RECONNECTING,
+        /** [close] was called; nothing will connect again. */
+        CLOSED
+    }
+
+    fun interface Listener {
+        /** [error] is set when the transition was caused by a failure. */
+        fun onStateChanged(state: State, error: Exception?)
+    }
+
+    private val lock = Any()
+    @Volatile var state = State.IDLE
+        private set
+
+    /** Stream of the connected link, null in any other state than [State.CONNECTED]. */
+    @Volatile var outputStream: OutputStream? = null
+        private set
+
+    /** Protocol agreed for the current link, see [ProtocolHandshake]. */
+    @Volatile var negotiatedVersion = PacketEncoder.PROTOCOL_V1
+        private set
+
+    private var transportFactory: (() -> Transport)? = null
+    private var transport: Transport? = null
+    private var attempt = 0
+    private var retryJob: Job? = null
+
+    companion object {
+        const val DEFAULT_CONNECT_TIMEOUT = 8000L
+    }
+
+    val isConnected: Boolean
+        get() = state == State.CONNECTED && transport?.isOpen == true
+
+    /** Drops the current link, if any, and starts connecting through [factory]. */
+    fun connect(factory: () -> Transport) {
+        synchronized(lock) {
+            if (state == State.CLOSED) return
+            transportFactory = factory
+            startAttempt(State.CONNECTING)
+        }
+    }
+
+    /** Starts a new attempt with the last factory passed to [connect] without waiting for the backoff. */
+    fun reconnect() {
+        synchronized(lock) {
+            if (state == State.CLOSED || state == State.CONNECTING || state == State.CONNECTED) return
+            if (transportFactory == null) return
+            startAttempt(State.RECONNECTING)
+        }
+    }
+
+    /**
+     * Reports that the connected link stopped accepting writes. The link is dropped, so
+     * nothing queued meanwhile is written to it, and a reconnect is scheduled.
+     */
+    fun markDegraded(error: Exception? = null) {
+        synchronized(lock) {
+            if (state != State.CONNECTED) return
+            attempt++
+            dropTransport()
+            setState(State.DEGRADED, error)
+            scheduleRetry()
+        }
+    }
+
+    /** Aborts a running attempt and drops the link; [connect] may be called again. */
+    fun cancel() {
+        synchronized(lock) {
+            if (state == State.CLOSED) return
+            attempt++
+            dropTransport()
+            setState(State.IDLE, null)
+        }
+    }
+
+    fun close() {
+        synchronized(lock) {
+            if (state == State.CLOSED) return
+            attempt++
+            transportFactory = null
+            dropTransport()
+            setState(State.CLOSED, null)
+        }
+    }
+
+    private fun startAttempt(attemptState: State) {
+        val id = ++attempt
+        val factory = transportFactory ?: return
+        dropTransport()
+        setState(attemptState, null)
+        scope.launch { runAttempt(id, factory) }
+    }
+
+    private fun runAttempt(id: Int, factory: () -> Transport) {
+        val newTransport: Transport
+        try {
+            newTransport = factory()
+        } catch (e: Exception) {
+            failAttempt(id, e)
+            return
+        }
+        synchronized(lock) {
+            if (id != attempt) {
+                newTransport.close()
+                return
+            }
+            transport = newTransport
+        }
+
+        val timedOut = AtomicBoolean(false)
+        val watchdog = scope.launch {
+            delay(connectTimeoutMillis)
+            timedOut.set(true)
+            newTransport.close()
+        }
+        try {
+            val stream = newTransport.open()
+            val version = ProtocolHandshake.negotiate(
+                newTransport.inputStream, stream, protocolVersion, handshakeTimeoutMillis
+            )
+            synchronized(lock) {
+                if (id != attempt) {
+                    newTransport.close()
+                    return
+                }
+                outputStream = stream
+                negotiatedVersion = version
+                backoff?.reset()
+                setState(State.CONNECTED, null)
+            }
+        } catch (e: Exception) {
+            failAttempt(id, if (timedOut.get()) SocketTimeoutException("Connect timed out after $connectTimeoutMillis ms") else e)
+        } finally {
+            watchdog.cancel()
+        }
+    }
+
+    private fun failAttempt(id: Int, error: Exception) {
+        synchronized(lock) {
+            if (id != attempt) return
+            dropTransport()
+            if (backoff != null && error is IOException) {
+                setState(State.RECONNECTING, error)
+                scheduleRetry()
+            } else {
+                setState(State.IDLE, error)
+            }
+        }
+    }
+
+    private fun scheduleRetry() {
+        val retryBackoff = backoff ?: return
+        val id = attempt
+        val delayMillis = retryBackoff.nextDelayMillis()
+        retryJob = scope.launch {
+            delay(delayMillis)
+            synchronized(lock) {
+                if (id == attempt) startAttempt(State.RECONNECTING)
+            }
+        }
+    }
+
+    private fun dropTransport() {
+        retryJob?.cancel()
+        retryJob = null
+        outputStream = null
+        val oldTransport = transport ?: return
+        transport = null
+        oldTransport.close()
+    }
+
+    private fun setState(newState: State, error: Exception?) {
+        if (state == newState && error == null) return
+        state = newState
+        listener.onStateChanged(newState, error)
+    }
+}
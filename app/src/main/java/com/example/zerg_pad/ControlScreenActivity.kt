@@ -0,0 +1,335 @@
+package com.example.zerg_pad
+
+import android.Manifest
+import android.content.Context
+import android.content.pm.ActivityInfo
+import android.content.pm.PackageManager
+import android.os.Build
+import android.os.Bundle
+import android.util.Log
+import android.view.*
+import android.widget.*
+import androidx.activity.ComponentActivity
+import androidx.core.app.ActivityCompat
+import kotlinx.coroutines.*
+import java.io.File
+import java.io.IOException
+import java.util.*
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Control screen shared by [ControlActivity] and [ControlActivity2]: binds the views of
+ * [layoutId] to a [ControlSession] and owns everything both layouts do the same way
+ * (buttons, command log, connection warning, fullscreen mode, frame times and trace).
+ *
+ * Both layouts use the same view ids. Subclasses only start the connection after
+ * [onCreate] and word its messages ([onConnected], [onConnectFailed]).
+ */
+abstract class ControlScreenActivity(
+    private val layoutId: Int,
+    deadzonePercent: Int,
+    protected val logTag: String
+) : ComponentActivity() {
+
+    // UI
+    private lateinit var joystick: ZergJoystickView
+    private lateinit var btStatusText: TextView
+    private lateinit var cmdTextView: TextView
+    private lateinit var hud: JoystickHud
+    private lateinit var frameTimes: FrameTimeMonitor
+
+    // Command log: history of sent frames, redrawn at most once per display frame
+    private val commandLog = CommandLog()
+    private val cmdText = CharArray(commandLog.maxTextSize)
+    private val cmdUpdatePending = AtomicBoolean(false)
+    private val cmdUpdater = Runnable {
+        cmdUpdatePending.set(false)
+        val textLength = commandLog.render(cmdText)
+        cmdTextView.setText(cmdText, 0, textLength)
+    }
+
+    // BT Monitor
+    private var btWarningVisible = false
+    private var btWarningTimer: Timer? = null
+    private var showRussian = true
+
+    protected val activityScope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+
+    protected val channelCache by lazy {
+        RfcommChannelCache(getSharedPreferences(RfcommChannelCache.PREFS_NAME, Context.MODE_PRIVATE))
+    }
+    protected val connectStats = ConnectStats()
+
+    protected val session = ControlSession(
+        ControlSession.Config(deadzonePercent = deadzonePercent, smoothing = ControlSession.Smoothing.ONE_EURO),
+        activityScope,
+        object : ControlSession.Listener {
+            override fun onCommandSent(command: Int) = updateCommandDisplay(command)
+            override fun onWriteFailed() = runOnUiThread { if (!isDestroyed) showBtWarning() }
+            override fun onConnectionStateChanged(state: ConnectionManager.State, error: Exception?) =
+                handleConnectionState(state, error)
+        }
+    )
+
+    companion object {
+        const val PERMISSION_REQUEST_CODE = 101
+    }
+
+    override fun onCreate(savedInstanceState: Bundle?) {
+        super.onCreate(savedInstanceState)
+
+        setFullscreenMode()
+        setupSystemUIListener()
+        requestedOrientation = ActivityInfo.SCREEN_ORIENTATION_LANDSCAPE
+        setContentView(layoutId)
+        frameTimes = FrameTimeMonitor(window)
+        frameTimes.start()
+
+        btStatusText = findViewById(R.id.bt_status_text)
+        joystick = findViewById(R.id.joystickView)
+        cmdTextView = findViewById(R.id.cmdTextView)
+        hud = JoystickHud(
+            this, findViewById(R.id.angleTextView), findViewById(R.id.powerTextView), findViewById(R.id.directionTextView)
+        )
+
+        setupControls()
+        val lowLatency = intent.getBooleanExtra("low_latency", false)
+        joystick.setLowLatencyMode(lowLatency)
+        session.lowLatencyMode = lowLatency
+        // Debug aid: `adb shell am start ... --ez record_samples true`, then pull cache/trace.bin
+        session.recordRawSamples = intent.getBooleanExtra("record_samples", false)
+        session.start()
+    }
+
+    /** The session reached the robot. UI thread. */
+    protected abstract fun onConnected()
+
+    /** Connecting failed for good with [error] and the session is idle. UI thread. */
+    protected abstract fun onConnectFailed(error: Exception)
+
+    private fun setupControls() {
+        joystick.setOnJoystickMoveListener(object : ZergJoystickView.OnJoystickMoveListener {
+            override fun onValueChanged(angle: Int, power: Int, direction: Int) {
+                hud.update(session.rotatedAngle(angle, power), power, direction)
+            }
+        })
+        joystick.setOnJoystickAxisListener { x, y, _, _, eventTimeNanos ->
+            session.onJoystickAxes(x, y, eventTimeNanos)
+        }
+
+        setupButton(R.id.btn_a, PacketEncoder.BUTTON_A)
+        setupButton(R.id.btn_b, PacketEncoder.BUTTON_B)
+        setupButton(R.id.btn_x, PacketEncoder.BUTTON_X)
+        setupButton(R.id.btn_y, PacketEncoder.BUTTON_Y)
+        setupButton(R.id.btn_select, PacketEncoder.BUTTON_SELECT)
+        setupButton(R.id.btn_start, PacketEncoder.BUTTON_START)
+        setupButton(R.id.btn_left, PacketEncoder.BUTTON_L)
+        setupButton(R.id.btn_right, PacketEncoder.BUTTON_R)
+    }
+
+    private fun updateCommandDisplay(command: Int) {
+        commandLog.add(command)
+        if (cmdUpdatePending.compareAndSet(false, true)) {
+            cmdTextView.postOnAnimation(cmdUpdater)
+        }
+    }
+
+    @Suppress("ClickableViewAccessibility")
+    private fun setupButton(buttonId: Int, buttonCode: Byte) {
+        val view = findViewById<View>(buttonId)
+        // Fingers currently on this button: pressed from the first down to the last up
+        var pointersDown = 0
+        view.setOnTouchListener { v, event ->
+            when (event.actionMasked) {
+                MotionEvent.ACTION_DOWN, MotionEvent.ACTION_POINTER_DOWN -> {
+                    if (pointersDown++ == 0) {
+                        session.onButton(buttonCode, true)
+                    }
+                }
+
+                MotionEvent.ACTION_POINTER_UP -> pointersDown--
+
+                MotionEvent.ACTION_UP, MotionEvent.ACTION_CANCEL -> {
+                    if (pointersDown > 0) {
+                        pointersDown = 0
+                        session.onButton(buttonCode, false)
+                    }
+                    v.performClick()
+                }
+            }
+            false
+        }
+    }
+
+    protected fun hasBluetoothPermissions(): Boolean {
+        return if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            ActivityCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_CONNECT) == PackageManager.PERMISSION_GRANTED &&
+                    ActivityCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_SCAN) == PackageManager.PERMISSION_GRANTED
+        } else {
+            true
+        }
+    }
+
+    protected fun requestBluetoothPermissions() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            val permissions = arrayOf(
+                Manifest.permission.BLUETOOTH_SCAN,
+                Manifest.permission.BLUETOOTH_CONNECT,
+                Manifest.permission.BLUETOOTH_ADVERTISE
+            )
+
+            val missingPermissions = permissions.filter {
+                ActivityCompat.checkSelfPermission(this, it) != PackageManager.PERMISSION_GRANTED
+            }.toTypedArray()
+
+            if (missingPermissions.isNotEmpty()) {
+                ActivityCompat.requestPermissions(this, missingPermissions, PERMISSION_REQUEST_CODE)
+            }
+        }
+    }
+
+    // Called from the connection thread. The warning state and its timer are UI-thread only,
+    // so everything runs there; nothing is started once the activity is gone
+    private fun handleConnectionState(state: ConnectionManager.State, error: Exception?) = runOnUiThread {
+        if (isDestroyed) return@runOnUiThread
+        when (state) {
+            ConnectionManager.State.CONNECTED -> {
+                hideBtWarning()
+                onConnected()
+            }
+
+            ConnectionManager.State.DEGRADED, ConnectionManager.State.RECONNECTING -> {
+                // Retried automatically with backoff, no toast per attempt
+                if (error != null) Log.w(logTag, "Reconnecting: ${error.message}")
+                showBtWarning()
+            }
+
+            ConnectionManager.State.IDLE -> if (error != null) onConnectFailed(error)
+
+            else -> {}
+        }
+    }
+
+    protected fun showBtWarning() {
+        if (btWarningVisible) return
+        btWarningVisible = true
+
+        runOnUiThread {
+            btStatusText.visibility = View.VISIBLE
+        }
+
+        btWarningTimer = Timer()
+        btWarningTimer?.scheduleAtFixedRate(object : TimerTask() {
+            override fun run() {
+                runOnUiThread {
+                    btStatusText.text = if (showRussian)
+                        "Потерянная связь с BT!"
+                    else
+                        "Lost connection with BT!"
+                    showRussian = !showRussian
+                }
+            }
+        }, 0, 1000)
+    }
+
+    private fun hideBtWarning() {
+        if (!btWarningVisible) return
+        btWarningVisible = false
+
+        runOnUiThread {
+            btStatusText.visibility = View.GONE
+        }
+
+        btWarningTimer?.cancel()
+        btWarningTimer = null
+    }
+
+    protected fun showToast(message: String) {
+        runOnUiThread {
+            Toast.makeText(this, message, Toast.LENGTH_SHORT).show()
+        }
+    }
+
+    private fun setFullscreenMode() {
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+                window.setDecorFitsSystemWindows(false)
+                window.insetsController?.let { controller ->
+                    controller.hide(WindowInsets.Type.systemBars())
+                    controller.systemBarsBehavior =
+                        WindowInsetsController.BEHAVIOR_SHOW_TRANSIENT_BARS_BY_SWIPE
+                }
+            } else {
+                @Suppress("DEPRECATION")
+                window.decorView.systemUiVisibility = (
+                        View.SYSTEM_UI_FLAG_IMMERSIVE_STICKY
+                                or View.SYSTEM_UI_FLAG_LAYOUT_STABLE
+                                or View.SYSTEM_UI_FLAG_LAYOUT_HIDE_NAVIGATION
+                                or View.SYSTEM_UI_FLAG_LAYOUT_FULLSCREEN
+                                or View.SYSTEM_UI_FLAG_HIDE_NAVIGATION
+                                or View.SYSTEM_UI_FLAG_FULLSCREEN
+                        )
+            }
+        } catch (e: Exception) {
+            Log.e(logTag, "Ошибка установки полноэкранного режима: ${e.message}")
+        }
+    }
+
+    private fun setupSystemUIListener() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            val rootView = window.decorView
+            rootView.setOnApplyWindowInsetsListener { view, windowInsets ->
+                if (windowInsets.isVisible(WindowInsets.Type.systemBars())) {
+                    rootView.postDelayed({ setFullscreenMode() }, 3000)
+                }
+                view.onApplyWindowInsets(windowInsets)
+            }
+        } else {
+            @Suppress("DEPRECATION")
+            window.decorView.setOnSystemUiVisibilityChangeListener { visibility ->
+                if (visibility and View.SYSTEM_UI_FLAG_FULLSCREEN == 0) {
+                    window.decorView.postDelayed({ setFullscreenMode() }, 3000)
+                }
+            }
+        }
+
+        window.decorView.setOnTouchListener { _, _ ->
+            setFullscreenMode()
+            false
+        }
+    }
+
+    // Decode with TraceRecorder.decode after pulling it from the app's cache directory.
+    // Written on the IO dispatcher; NonCancellable so that cancelling activityScope right
+    // after does not cut the file short
+    private fun saveTrace() = activityScope.launch(NonCancellable) {
+        try {
+            File(cacheDir, TraceRecorder.DUMP_FILE_NAME).outputStream().use { TraceRecorder.shared.writeTo(it) }
+        } catch (e: IOException) {
+            Log.w(logTag, "Trace not saved: ${e.message}")
+        }
+    }
+
+    override fun onDestroy() {
+        super.onDestroy()
+        val latency = session.touchToSendLatency
+        Log.i(logTag, "Touch-to-send: ${latency.count} samples, avg ${latency.averageMicros} us, max ${latency.maxMicros} us")
+        Log.i(logTag, "Writes: %.2f frames, %.1f bytes per write".format(session.packetsPerWrite, session.bytesPerWrite))
+        session.close()
+        frameTimes.stop()
+        saveTrace()
+
+        hideBtWarning()
+        btWarningTimer?.cancel()
+        btWarningTimer = null
+
+        activityScope.cancel()
+    }
+
+    override fun onWindowFocusChanged(hasFocus: Boolean) {
+        super.onWindowFocusChanged(hasFocus)
+        if (hasFocus) {
+            setFullscreenMode()
+        }
+    }
+}
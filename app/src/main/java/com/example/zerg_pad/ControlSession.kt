@@ -0,0 +1,281 @@
+package com.example.zerg_pad
+
+import kotlinx.coroutines.CoroutineScope
+import java.io.OutputStream
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Control engine shared by [ControlActivity] and [ControlActivity2].
+ *
+ * Owns everything between the on-screen controls and the wire: input shaping
+ * ([InputPipeline]), fixed-rate transmission ([TransmitScheduler]), ordered writes
+ * ([PacketWriter]) and the link to the robot ([ConnectionManager]). It is independent of the activity lifecycle
+ * and of Android UI classes, so all of it runs in plain JVM tests; [ControlScreenActivity]
+ * only binds the views to it.
+ *
+ * Input methods ([onJoystickAxes], [onButton]) are expected on the UI thread,
+ * [Listener] callbacks may come from any thread.
+ */
+class ControlSession(
+    private val config: Config,
+    scope: CoroutineScope,
+    private val listener: Listener,
+    private val trace: TraceRecorder = TraceRecorder.shared
+) {
+    class Config(
+        val deadzonePercent: Int = 15,
+        val smoothing: Smoothing = Smoothing.LOW_PASS,
+        /** Per-sample weight at 60 Hz of [Smoothing.LOW_PASS]. */
+        val filterAlpha: Float = 0.25f,
+        /** Cutoff at rest and its rise with speed for [Smoothing.ONE_EURO], see [OneEuroFilter]. */
+        val minCutoffHz: Float = OneEuroFilter.DEFAULT_MIN_CUTOFF,
+        val beta: Float = OneEuroFilter.DEFAULT_BETA,
+        val transmitRateHz: Int = TransmitScheduler.DEFAULT_RATE_HZ,
+        val keepAliveMillis: Long = TransmitScheduler.DEFAULT_KEEP_ALIVE,
+        val batchWindowMillis: Long = PacketWriter.DEFAULT_BATCH_WINDOW,
+        val connectTimeoutMillis: Long = ConnectionManager.DEFAULT_CONNECT_TIMEOUT,
+        /**
+         * Highest protocol to offer the robot, see [ProtocolHandshake] and [PacketEncoder].
+         * v2 and v3 are opt-in: they cost a handshake on every connect that old sketches
+         * only answer by timing out.
+         */
+        val protocolVersion: Int = PacketEncoder.PROTOCOL_V1,
+        /** How far ahead the stick is predicted in [lowLatencyMode]. */
+        val predictionHorizonMillis: Long = DEFAULT_PREDICTION_HORIZON,
+        /** See [ResponseCurveStage]. */
+        val responseCurve: Float = ResponseCurveStage.DEFAULT_COEFFICIENT,
+        /** See [ChangeThresholdStage]; 1 passes every change. */
+        val changeThreshold: Int = 1,
+        /** Builds the stick processing; replace to tune the stages for a device. */
+        val createPipeline: (Config) -> InputPipeline = ::standardPipeline
+    )
+
+    enum class Smoothing {
+        /** Fixed time constant, [LowPassFilter]. */
+        LOW_PASS,
+        /** Less smoothing the faster the stick moves, [OneEuroFilter]. */
+        ONE_EURO
+    }
+
+    interface Listener {
+        /**
+         * A command was queued for sending, see [PacketEncoder.encodeCommand]; the frame
+         * on the wire depends on the negotiated protocol. Not called while the link is down,
+         * as those frames are dropped; the buttons are brought up to date on connect.
+         */
+        fun onCommandSent(command: Int) {}
+
+        /** A write failed even after retries. */
+        fun onWriteFailed() {}
+
+        /** See [ConnectionManager.Listener.onStateChanged]. */
+        fun onConnectionStateChanged(state: ConnectionManager.State, error: Exception?) {}
+    }
+
+    private val connection = ConnectionManager(
+        scope, config.connectTimeoutMillis, protocolVersion = config.protocolVersion
+    ) { state, error ->
+        trace.record(TraceRecorder.CONNECTION, state.ordinal)
+        if (state == ConnectionManager.State.CONNECTED) resync() else linkReady = false
+        listener.onConnectionStateChanged(state, error)
+    }
+
+    // Set by resync(); until then the writer sees no stream and drops what is queued, so
+    // frames from before a (re)connect never reach the robot
+    @Volatile private var linkReady = false
+
+    private val packetWriter = PacketWriter(
+        scope, { if (linkReady) connection.outputStream else null },
+        batchWindowMillis = config.batchWindowMillis,
+        onStickWritten = { recordTouchToSend() }
+    ) {
+        connection.markDegraded()
+        listener.onWriteFailed()
+    }
+
+    // Latest joystick state, sampled by the transmit scheduler at a fixed rate
+    private val stickState = AtomicInteger(CENTER_STATE)
+    private val transmitScheduler = TransmitScheduler(
+        scope, config.transmitRateHz, config.keepAliveMillis, { stickState.get() }
+    ) { state ->
+        sentSampleTime = latestSampleTime
+        trace.record(
+            TraceRecorder.STICK_SENT,
+            PacketEncoder.stickX(state), PacketEncoder.stickY(state), PacketEncoder.stickPower(state)
+        )
+        packetWriter.sendStick(state)
+        if (linkReady) listener.onCommandSent(state)
+    }
+
+    private val pipeline = config.createPipeline(config)
+
+    /**
+     * Opt-in: extrapolates the stick along its current velocity before smoothing, so the
+     * sent position is not [Config.predictionHorizonMillis] behind the finger. Pair with
+     * [ZergJoystickView.setLowLatencyMode] for unbuffered touch delivery.
+     */
+    var lowLatencyMode = false
+        set(value) {
+            field = value
+            pipeline.lowLatencyMode = value
+        }
+
+    /**
+     * Records every touch sample as a [TraceRecorder.RAW_SAMPLE] before it is filtered, for
+     * evaluating filters offline on real input. Off by default: at touch rate the samples
+     * soon push everything else out of the trace.
+     */
+    @Volatile var recordRawSamples = false
+
+    /**
+     * Time from a touch sample to the write that first carried a stick state including it.
+     * Keep-alive resends are not counted.
+     */
+    val touchToSendLatency = DurationStats()
+
+    /** Frames per `write()` so far, see [PacketWriter.packetsPerWrite]; 0 before the first. */
+    val packetsPerWrite: Double
+        get() = packetWriter.packetsPerWrite
+
+    /** Bytes per `write()` so far, see [PacketWriter.bytesPerWrite]; 0 before the first. */
+    val bytesPerWrite: Double
+        get() = packetWriter.bytesPerWrite
+
+    // Event time of the newest sample, of the one in the last transmitted state, and of the
+    // last one measured
+    @Volatile private var latestSampleTime = NO_SAMPLE
+    @Volatile private var sentSampleTime = NO_SAMPLE
+    private var measuredSampleTime = NO_SAMPLE
+
+    // Bit per button code: currently held, and ever pressed or released. Changed only
+    // together with queuing the frames, under buttonLock
+    private val buttonLock = Any()
+    private var heldButtons = 0
+    private var usedButtons = 0
+
+    companion object {
+        const val DEFAULT_PREDICTION_HORIZON = 20L
+        private const val NO_SAMPLE = Long.MIN_VALUE
+
+        private val CENTER_STATE =
+            PacketEncoder.packStick(PacketEncoder.JOYSTICK_CENTER, PacketEncoder.JOYSTICK_CENTER, 0)
+
+        fun standardPipeline(config: Config) = InputPipeline.standard(
+            config.deadzonePercent,
+            config.responseCurve,
+            when (config.smoothing) {
+                Smoothing.LOW_PASS -> LowPassStage(config.filterAlpha)
+                Smoothing.ONE_EURO -> OneEuroStage(config.minCutoffHz, config.beta)
+            },
+            config.predictionHorizonMillis * 1_000_000L,
+            config.changeThreshold
+        )
+    }
+
+    val isConnected: Boolean
+        get() = connection.isConnected
+
+    val connectionState: ConnectionManager.State
+        get() = connection.state
+
+    /** Latest joystick state as packed by [PacketEncoder.packStick]. */
+    val currentStickState: Int
+        get() = stickState.get()
+
+    fun start() {
+        packetWriter.start()
+        transmitScheduler.start()
+    }
+
+    /** Replaces the current transport with one from [transportFactory]; returns immediately. */
+    fun connect(transportFactory: () -> Transport) {
+        connection.connect(transportFactory)
+    }
+
+    fun close() {
+        transmitScheduler.stop()
+        packetWriter.close()
+        connection.close()
+    }
+
+    /** Angle in protocol orientation (0° = right, counter-clockwise), 0 inside the deadzone. */
+    fun rotatedAngle(angle: Int, power: Int): Int =
+        if (power < config.deadzonePercent) 0 else (angle - 90 + 360) % 360
+
+    /**
+     * Takes one touch sample from [ZergJoystickView.OnJoystickAxisListener]: [x] right, [y]
+     * up, 1 at the edge of the stick, taken at [eventTimeNanos] (`MotionEvent` time base,
+     * which on Android is the same monotonic clock as [System.nanoTime]). Feed every
+     * historical sample of a batched move here in order, so smoothing runs at the real
+     * input rate.
+     */
+    fun onJoystickAxes(x: Float, y: Float, eventTimeNanos: Long) {
+        latestSampleTime = eventTimeNanos
+        if (recordRawSamples) recordRawSample(x, y, eventTimeNanos)
+        stickState.set(pipeline.process(x, y, eventTimeNanos))
+    }
+
+    // Wire orientation (Y down), as the filters see it
+    private fun recordRawSample(x: Float, y: Float, eventTimeNanos: Long) {
+        trace.recordAt(
+            eventTimeNanos, TraceRecorder.RAW_SAMPLE, PacketEncoder.axisToWire(x), PacketEncoder.axisToWire(-y), 0
+        )
+    }
+
+    /** [buttonCode] must be below 32, see [PacketEncoder.BUTTON_A]. */
+    fun onButton(buttonCode: Byte, pressed: Boolean) {
+        val bit = 1 shl buttonCode.toInt()
+        // The frame is queued with the state change, so it cannot land before a resync
+        // that still saw the old state
+        val sent = synchronized(buttonLock) {
+            heldButtons = if (pressed) heldButtons or bit else heldButtons and bit.inv()
+            usedButtons = usedButtons or bit
+            packetWriter.sendButton(buttonCode, pressed)
+            linkReady
+        }
+        trace.record(TraceRecorder.BUTTON, buttonCode.toInt(), if (pressed) 1 else 0)
+        if (sent) listener.onCommandSent(PacketEncoder.buttonCommand(buttonCode, pressed))
+    }
+
+    /**
+     * Brings the robot up to date after a (re)connect. Frames queued while the link was
+     * down are discarded; instead every button used so far is sent once in its current
+     * state, and the next tick re-sends the stick. Releases are re-sent even if they were
+     * queued while connected, as their write may have failed and been dropped.
+     */
+    private fun resync() {
+        // All under the lock, so a button changed meanwhile is queued either before the
+        // discard or after the snapshot frames, never in between
+        synchronized(buttonLock) {
+            packetWriter.discardQueued()
+            packetWriter.protocolVersion = connection.negotiatedVersion
+            linkReady = true
+            val released = usedButtons and heldButtons.inv()
+            for (code in 0 until 32) {
+                if (released and (1 shl code) != 0) packetWriter.sendButton(code.toByte(), false)
+            }
+            for (code in 0 until 32) {
+                if (heldButtons and (1 shl code) != 0) packetWriter.sendButton(code.toByte(), true)
+            }
+        }
+        transmitScheduler.invalidate()
+    }
+
+    /**
+     * One transmit tick at [nowNanos] and a drain of the writer into [stream], on the calling
+     * thread: lets tests run the whole path from a touch sample to the write without the
+     * background clock and writer (the session is then not [start]ed).
+     */
+    internal fun transmitNow(nowNanos: Long, stream: OutputStream) {
+        transmitScheduler.tick(nowNanos)
+        packetWriter.drainPending(stream)
+    }
+
+    // Writer thread
+    private fun recordTouchToSend() {
+        val sampleTime = sentSampleTime
+        if (sampleTime == NO_SAMPLE || sampleTime == measuredSampleTime) return
+        measuredSampleTime = sampleTime
+        touchToSendLatency.record(System.nanoTime() - sampleTime)
+    }
+}
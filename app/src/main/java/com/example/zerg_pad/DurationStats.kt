@@ -0,0 +1,34 @@
+package com.example.zerg_pad
+
+/**
+ * Running count / mean / max of durations, recorded without allocating. Used for the
+ * frame time of [FrameTimeMonitor] and the touch-to-send latency of [ControlSession].
+ * Safe to record on one thread and read on another.
+ */
+class DurationStats {
+    @get:Synchronized
+    var count = 0
+        private set
+    private var totalNanos = 0L
+    private var maxNanos = 0L
+
+    @Synchronized
+    fun record(nanos: Long) {
+        count++
+        totalNanos += nanos
+        if (nanos > maxNanos) maxNanos = nanos
+    }
+
+    val averageMicros: Long
+        @Synchronized get() = if (count == 0) 0L else totalNanos / count / 1000L
+
+    val maxMicros: Long
+        @Synchronized get() = maxNanos / 1000L
+
+    @Synchronized
+    fun reset() {
+        count = 0
+        totalNanos = 0L
+        maxNanos = 0L
+    }
+}
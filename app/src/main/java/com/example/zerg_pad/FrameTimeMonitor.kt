@@ -0,0 +1,52 @@
+package com.example.zerg_pad
+
+import android.os.Handler
+import android.os.HandlerThread
+import android.view.FrameMetrics
+import android.view.Window
+
+/**
+ * Real frame times of a [Window] from the platform's `FrameMetrics` (input handling to
+ * buffer swap, so the whole render pipeline and not just `onDraw`). Every
+ * [REPORT_FRAMES] frames a [TraceRecorder.DRAW_STATS] summary goes to [trace] and the
+ * stats start over.
+ *
+ * Metrics are delivered on a background thread; [start] / [stop] on the UI thread.
+ */
+class FrameTimeMonitor(
+    private val window: Window,
+    private val trace: TraceRecorder = TraceRecorder.shared
+) {
+    val stats = DurationStats()
+    private var thread: HandlerThread? = null
+
+    private val listener = Window.OnFrameMetricsAvailableListener { _, metrics, _ ->
+        stats.record(metrics.getMetric(FrameMetrics.TOTAL_DURATION))
+        if (stats.count >= REPORT_FRAMES) report()
+    }
+
+    companion object {
+        const val REPORT_FRAMES = 120
+    }
+
+    fun start() {
+        if (thread != null) return
+        val metricsThread = HandlerThread("FrameMetrics").apply { start() }
+        thread = metricsThread
+        window.addOnFrameMetricsAvailableListener(listener, Handler(metricsThread.looper))
+    }
+
+    /** Stops listening and traces what was measured since the last summary. */
+    fun stop() {
+        val metricsThread = thread ?: return
+        thread = null
+        window.removeOnFrameMetricsAvailableListener(listener)
+        metricsThread.quitSafely()
+        if (stats.count > 0) report()
+    }
+
+    private fun report() {
+        trace.record(TraceRecorder.DRAW_STATS, stats.count, stats.averageMicros.toInt(), stats.maxMicros.toInt())
+        stats.reset()
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.zerg_pad
+
+/**
+ * Sample handed from stage to stage. Each [InputPipeline] reuses one instance, so nothing
+ * is allocated per touch event.
+ */
+class StickSample {
+    /** Deflection, right / up positive; 1 is the edge of the stick. */
+    var x = 0f
+    var y = 0f
+    var timeNanos = 0L
+    /** The stick is at rest (released or in the deadzone); stateful stages start over. */
+    var centered = false
+
+    // Set by QuantizerStage: wire-range axes (Y down) and power 0..100
+    var wireX = PacketEncoder.JOYSTICK_CENTER
+    var wireY = PacketEncoder.JOYSTICK_CENTER
+    var power = 0
+}
+
+/** One step of [InputPipeline]; implementations work on primitives only and must not allocate. */
+interface InputStage {
+    fun process(sample: StickSample)
+
+    /** Drops any state kept between samples. */
+    fun reset() {}
+}
+
+/**
+ * Turns joystick samples into packed stick states ([PacketEncoder.packStick]) by running
+ * them through [stages] in order. Stages before a [QuantizerStage] work on [StickSample.x]
+ * / [StickSample.y], the ones after it on the wire values.
+ *
+ * Not thread-safe; [ControlSession] drives it from the UI thread.
+ */
+class InputPipeline(vararg stages: InputStage) {
+    private val stages: Array<out InputStage> = stages
+    private val sample = StickSample()
+
+    companion object {
+        /**
+         * Response curve, deadzone, quantizer, prediction (off until [lowLatencyMode]),
+         * [smoothing] and, with a [changeThreshold] above 1, a change detector.
+         */
+        fun standard(
+            deadzonePercent: Int,
+            responseCurve: Float = ResponseCurveStage.DEFAULT_COEFFICIENT,
+            smoothing: InputStage = LowPassStage(0.25f),
+            predictionHorizonNanos: Long = ControlSession.DEFAULT_PREDICTION_HORIZON * 1_000_000L,
+            changeThreshold: Int = 1
+        ): InputPipeline {
+            val front = arrayOf<InputStage>(
+                ResponseCurveStage(responseCurve),
+                DeadzoneStage(deadzonePercent),
+                QuantizerStage(),
+                PredictionStage(predictionHorizonNanos),
+                smoothing
+            )
+            return if (changeThreshold > 1) InputPipeline(*front, ChangeThresholdStage(changeThreshold))
+            else InputPipeline(*front)
+        }
+    }
+
+    /** Enables the [PredictionStage]s, see [ControlSession.lowLatencyMode]. */
+    var lowLatencyMode = false
+        set(value) {
+            field = value
+            for (stage in stages) {
+                if (stage is PredictionStage) {
+                    stage.enabled = value
+                    stage.reset()
+                }
+            }
+        }
+
+    /** Processes one sample taken at [timeNanos] and returns the packed stick state. */
+    fun process(x: Float, y: Float, timeNanos: Long): Int {
+        sample.x = x
+        sample.y = y
+        sample.timeNanos = timeNanos
+        sample.centered = false
+        sample.wireX = PacketEncoder.JOYSTICK_CENTER
+        sample.wireY = PacketEncoder.JOYSTICK_CENTER
+        sample.power = 0
+        for (stage in stages) stage.process(sample)
+        return PacketEncoder.packStick(sample.wireX, sample.wireY, sample.power)
+    }
+
+    fun reset() {
+        for (stage in stages) stage.reset()
+    }
+}
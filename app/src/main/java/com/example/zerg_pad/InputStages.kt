@@ -0,0 +1,143 @@
+package com.example.zerg_pad
+
+import kotlin.math.abs
+import kotlin.math.min
+import kotlin.math.roundToInt
+import kotlin.math.sqrt
+
+// Stages of InputPipeline, in their usual order
+
+/**
+ * Radial response `r * (1 + coefficient * r)`, capped at 1: a slight push towards the edge
+ * so full power is easy to reach while small deflections stay linear. The same curve as
+ * the power shown by [ZergJoystickView].
+ */
+class ResponseCurveStage(private val coefficient: Float = DEFAULT_COEFFICIENT) : InputStage {
+    companion object {
+        const val DEFAULT_COEFFICIENT = 0.03f
+    }
+
+    override fun process(sample: StickSample) {
+        val r = sqrt(sample.x * sample.x + sample.y * sample.y)
+        if (r == 0f) return
+        val scale = min(1f, r * (1f + r * coefficient)) / r
+        sample.x *= scale
+        sample.y *= scale
+    }
+}
+
+/** Centres the stick while its power is below [percent]. */
+class DeadzoneStage(private val percent: Int) : InputStage {
+    override fun process(sample: StickSample) {
+        if ((sqrt(sample.x * sample.x + sample.y * sample.y) * 100).roundToInt() >= percent) return
+        sample.x = 0f
+        sample.y = 0f
+        sample.centered = true
+    }
+}
+
+/** Maps the deflection to the wire range and the power to 0..100. */
+class QuantizerStage : InputStage {
+    override fun process(sample: StickSample) {
+        if (sample.centered) return
+        sample.power = (sqrt(sample.x * sample.x + sample.y * sample.y) * 100).roundToInt().coerceAtMost(100)
+        sample.wireX = PacketEncoder.axisToWire(sample.x)
+        sample.wireY = PacketEncoder.axisToWire(-sample.y)
+    }
+}
+
+/** Extrapolates the wire position with a [MotionPredictor] while [enabled]. */
+class PredictionStage(horizonNanos: Long) : InputStage {
+    private val predictor = MotionPredictor(horizonNanos)
+    var enabled = false
+
+    override fun process(sample: StickSample) {
+        if (!enabled) return
+        if (sample.centered) {
+            predictor.reset()
+            return
+        }
+        predictor.update(sample.wireX, sample.wireY, sample.timeNanos)
+        sample.wireX = predictor.predictedX()
+        sample.wireY = predictor.predictedY()
+    }
+
+    override fun reset() {
+        predictor.reset()
+    }
+}
+
+/** Smooths both wire axes with a timed [LowPassFilter]. */
+class LowPassStage(alpha: Float) : InputStage {
+    private val xFilter = LowPassFilter(alpha)
+    private val yFilter = LowPassFilter(alpha)
+
+    override fun process(sample: StickSample) {
+        if (sample.centered) {
+            reset()
+            return
+        }
+        sample.wireX = xFilter.filter(sample.wireX, sample.timeNanos)
+        sample.wireY = yFilter.filter(sample.wireY, sample.timeNanos)
+    }
+
+    override fun reset() {
+        xFilter.reset(PacketEncoder.JOYSTICK_CENTER)
+        yFilter.reset(PacketEncoder.JOYSTICK_CENTER)
+    }
+}
+
+/** Smooths both wire axes with a speed-adaptive [OneEuroFilter]. */
+class OneEuroStage(
+    minCutoffHz: Float = OneEuroFilter.DEFAULT_MIN_CUTOFF,
+    beta: Float = OneEuroFilter.DEFAULT_BETA
+) : InputStage {
+    private val xFilter = OneEuroFilter(minCutoffHz, beta)
+    private val yFilter = OneEuroFilter(minCutoffHz, beta)
+
+    override fun process(sample: StickSample) {
+        if (sample.centered) {
+            reset()
+            return
+        }
+        sample.wireX = xFilter.filter(sample.wireX, sample.timeNanos)
+        sample.wireY = yFilter.filter(sample.wireY, sample.timeNanos)
+    }
+
+    override fun reset() {
+        xFilter.reset(PacketEncoder.JOYSTICK_CENTER)
+        yFilter.reset(PacketEncoder.JOYSTICK_CENTER)
+    }
+}
+
+/**
+ * Holds the last output until an axis or the power moves by at least [minDelta], so
+ * jitter does not cause transmissions. Centring always goes through.
+ */
+class ChangeThresholdStage(private val minDelta: Int) : InputStage {
+    private var lastX = PacketEncoder.JOYSTICK_CENTER
+    private var lastY = PacketEncoder.JOYSTICK_CENTER
+    private var lastPower = 0
+
+    override fun process(sample: StickSample) {
+        if (!sample.centered &&
+            abs(sample.wireX - lastX) < minDelta &&
+            abs(sample.wireY - lastY) < minDelta &&
+            abs(sample.power - lastPower) < minDelta
+        ) {
+            sample.wireX = lastX
+            sample.wireY = lastY
+            sample.power = lastPower
+            return
+        }
+        lastX = sample.wireX
+        lastY = sample.wireY
+        lastPower = sample.power
+    }
+
+    override fun reset() {
+        lastX = PacketEncoder.JOYSTICK_CENTER
+        lastY = PacketEncoder.JOYSTICK_CENTER
+        lastPower = 0
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.zerg_pad
+
+import android.content.Context
+import android.widget.TextView
+
+/**
+ * Angle / power / direction readout of the control screens.
+ *
+ * [update] can be called for every joystick callback: it only stores the values and
+ * schedules one redraw for the next display frame. The redraw touches only the views
+ * whose value changed, with strings formatted once per value and then kept in tables
+ * (360 angles, 101 powers, 9 directions).
+ *
+ * UI thread only.
+ */
+class JoystickHud(
+    private val context: Context,
+    private val angleView: TextView,
+    private val powerView: TextView,
+    private val directionView: TextView
+) {
+    private val angleTexts = arrayOfNulls<String>(360)
+    private val powerTexts = arrayOfNulls<String>(101)
+    private val directionTexts = arrayOfNulls<String>(DIRECTION_LABELS.size)
+
+    private var angle = 0
+    private var power = 0
+    private var direction = ZergJoystickView.CENTER
+    private var shownAngle = NOT_SHOWN
+    private var shownPower = NOT_SHOWN
+    private var shownDirection = NOT_SHOWN
+    private var redrawPending = false
+    private val redraw = Runnable {
+        redrawPending = false
+        show()
+    }
+
+    companion object {
+        private const val NOT_SHOWN = -1
+
+        // Indexed by the ZergJoystickView direction constants
+        private val DIRECTION_LABELS = intArrayOf(
+            R.string.center_lab,
+            R.string.right_lab,
+            R.string.left_front_lab,
+            R.string.front_lab,
+            R.string.front_right_lab,
+            R.string.left_lab,
+            R.string.right_bottom_lab,
+            R.string.bottom_lab,
+            R.string.bottom_left_lab
+        )
+    }
+
+    /** [angle] 0..359, [power] 0..100, [direction] one of the [ZergJoystickView] constants. */
+    fun update(angle: Int, power: Int, direction: Int) {
+        this.angle = angle
+        this.power = power
+        this.direction = direction
+        if (!redrawPending) {
+            redrawPending = true
+            angleView.postOnAnimation(redraw)
+        }
+    }
+
+    private fun show() {
+        if (angle != shownAngle) {
+            angleView.text = angleTexts[angle] ?: context.getString(R.string.angle_format, angle).also { angleTexts[angle] = it }
+            shownAngle = angle
+        }
+        if (power != shownPower) {
+            powerView.text = powerTexts[power] ?: context.getString(R.string.power_format, power).also { powerTexts[power] = it }
+            shownPower = power
+        }
+        if (direction != shownDirection) {
+            val index = if (direction in DIRECTION_LABELS.indices) direction else ZergJoystickView.CENTER
+            directionView.text = directionTexts[index] ?: context.getString(DIRECTION_LABELS[index]).also { directionTexts[index] = it }
+            shownDirection = direction
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.zerg_pad
+
+import kotlin.math.min
+import kotlin.math.sqrt
+
+/**
+ * Integer versions of the joystick math, giving exactly the values of the
+ * `atan2` / `sqrt` formulas they replace. Those formulas are kept in
+ * [JoystickMathTest], which checks every position of a stick against them.
+ *
+ * Offsets from the centre are given in half pixels (`2 * position - size`), so the centre
+ * of an odd-sized view (`size / 2.0`) is still an integer. Y grows downwards, as on screen.
+ *
+ * The tables are filled once from the platform's own `Math` results, so the fixed-point
+ * values agree with whatever rounding that platform's double path has.
+ */
+object JoystickMath {
+    // Fixed-point scale of the tangent table
+    private const val TAN_SHIFT = 44
+
+    // tan(k°) for k in 0..45: bounds of the one-degree steps in the first octant
+    private val tangents = LongArray(46) { k ->
+        (Math.tan(Math.toRadians(k.toDouble())) * (1L shl TAN_SHIFT)).toLong()
+    }
+
+    // Directions on the axes and diagonals hit the table bounds exactly; the double path
+    // rounds those its own way, so they are taken from it: [dx sign + 1][dy sign + 1]
+    private val exactAngles = Array(3) { i -> IntArray(3) { j -> referenceAngle(i - 1, j - 1) } }
+
+    /**
+     * View angle of the offset, 0..359: 0 straight down, 90 right, 180 up, 270 left.
+     * 0 at the centre.
+     */
+    @JvmStatic
+    fun angle(dx2: Int, dy2: Int): Int {
+        val x = dx2
+        val y = -dy2
+        val ax = if (x < 0) -x else x
+        val ay = if (y < 0) -y else y
+        if (ax == ay || ax == 0 || ay == 0) return exactAngles[Integer.signum(dx2) + 1][Integer.signum(dy2) + 1]
+
+        // Whole degrees of the direction within its quadrant; never an integer here
+        val inQuadrant = if (ay < ax) octantDegrees(ay, ax) else 89 - octantDegrees(ax, ay)
+        val degrees = when {
+            x > 0 && y > 0 -> inQuadrant
+            x < 0 && y > 0 -> 179 - inQuadrant
+            x < 0 -> 180 + inQuadrant
+            else -> 359 - inQuadrant
+        }
+        return (degrees + 90) % 360
+    }
+
+    /**
+     * Power 0..100 for offsets within a stick of [radius] pixels: the distance is only
+     * compared against the squared distances where the power steps up.
+     */
+    class PowerTable(radius: Int) {
+        // thresholds[p - 1]: smallest dx2² + dy2² with power >= p
+        private val thresholds = IntArray(100)
+
+        init {
+            // Positions are clamped to the radius; power reaches 100 well before that
+            val limit = 4 * (radius + 1) * (radius + 1)
+            var low = 0
+            for (p in 1..100) {
+                var high = limit
+                if (referencePower(high, radius) < p) {
+                    thresholds.fill(Int.MAX_VALUE, p - 1)
+                    break
+                }
+                while (low < high) {
+                    val mid = (low + high) ushr 1
+                    if (referencePower(mid, radius) >= p) high = mid else low = mid + 1
+                }
+                thresholds[p - 1] = low
+            }
+        }
+
+        fun power(dx2: Int, dy2: Int): Int {
+            val squared = dx2 * dx2 + dy2 * dy2
+            var low = 0
+            var high = thresholds.size
+            while (low < high) {
+                val mid = (low + high) ushr 1
+                if (thresholds[mid] <= squared) low = mid + 1 else high = mid
+            }
+            return low
+        }
+    }
+
+    // Largest k with tan(k°) <= a / b, for 0 < a < b
+    private fun octantDegrees(a: Int, b: Int): Int {
+        val scaled = a.toLong() shl TAN_SHIFT
+        var low = 0
+        var high = 44
+        while (low < high) {
+            val mid = (low + high + 1) ushr 1
+            if (b * tangents[mid] <= scaled) low = mid else high = mid - 1
+        }
+        return low
+    }
+
+    private fun referenceAngle(dx: Int, dy: Int): Int {
+        if (dx == 0 && dy == 0) return 0
+        val angle = Math.toDegrees(Math.atan2(-dy.toDouble(), dx.toDouble()))
+        return ((angle + 450) % 360).toInt()
+    }
+
+    // The view's power formula for a squared offset in half pixels
+    private fun referencePower(squared: Int, radius: Int): Int {
+        val ratio = sqrt(squared / 4.0) / radius
+        return Math.round(min(1.0, ratio * (1.0 + ratio * 0.03)) * 100).toInt()
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.zerg_pad
+
+import kotlin.math.exp
+import kotlin.math.ln
+import kotlin.math.roundToInt
+
+// === Класс фильтра для сглаживания движения джойстика ===
+// alpha is the smoothing per sample at NOMINAL_RATE_HZ (one touch event per 60 Hz frame).
+// filter() turns it into a time constant, so the response stays the same
+// when samples arrive at the real digitizer rate (120–240 Hz) or irregularly.
+class LowPassFilter(private val alpha: Float) {
+    private var lastValue = PacketEncoder.JOYSTICK_CENTER.toFloat()
+    private var lastTimeNanos = NO_TIME
+    private val timeConstantNanos =
+        if (alpha >= 1f) 0.0 else -NOMINAL_PERIOD_NANOS / ln(1.0 - alpha)
+
+    companion object {
+        const val NOMINAL_RATE_HZ = 60
+        private const val NOMINAL_PERIOD_NANOS = 1_000_000_000.0 / NOMINAL_RATE_HZ
+        private const val NO_TIME = Long.MIN_VALUE
+    }
+
+    /** Filters a sample taken at [timeNanos]; the first one after [reset] is weighted with [alpha]. */
+    fun filter(newValue: Int, timeNanos: Long): Int {
+        val weight = if (lastTimeNanos == NO_TIME) alpha else weightFor(timeNanos - lastTimeNanos)
+        lastTimeNanos = timeNanos
+        lastValue = weight * newValue + (1 - weight) * lastValue
+        return lastValue.roundToInt().coerceIn(0, 255)
+    }
+
+    fun reset(value: Int) {
+        lastValue = value.toFloat()
+        lastTimeNanos = NO_TIME
+    }
+
+    private fun weightFor(elapsedNanos: Long): Float {
+        if (timeConstantNanos == 0.0) return 1f
+        if (elapsedNanos <= 0L) return 0f
+        return (1.0 - exp(-elapsedNanos / timeConstantNanos)).toFloat()
+    }
+}
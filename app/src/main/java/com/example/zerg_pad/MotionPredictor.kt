@@ -0,0 +1,53 @@
+package com.example.zerg_pad
+
+import kotlin.math.roundToInt
+
+/**
+ * Short-horizon linear prediction of the stick position, used in low-latency mode to
+ * offset the lag of [LowPassFilter]: the position is extrapolated [horizonNanos] ahead
+ * along a smoothed velocity, never by more than [maxLead] units per axis.
+ */
+class MotionPredictor(
+    private val horizonNanos: Long,
+    private val maxLead: Int = DEFAULT_MAX_LEAD
+) {
+    private var lastX = 0
+    private var lastY = 0
+    private var lastTimeNanos = NO_TIME
+    // Units per nanosecond
+    private var velocityX = 0.0
+    private var velocityY = 0.0
+
+    companion object {
+        const val DEFAULT_MAX_LEAD = 24
+        // Weight of the newest velocity sample; keeps single jittery samples from overshooting
+        private const val VELOCITY_SMOOTHING = 0.5
+        private const val NO_TIME = Long.MIN_VALUE
+    }
+
+    fun update(x: Int, y: Int, timeNanos: Long) {
+        if (lastTimeNanos != NO_TIME && timeNanos > lastTimeNanos) {
+            val elapsed = (timeNanos - lastTimeNanos).toDouble()
+            velocityX += VELOCITY_SMOOTHING * ((x - lastX) / elapsed - velocityX)
+            velocityY += VELOCITY_SMOOTHING * ((y - lastY) / elapsed - velocityY)
+        }
+        lastX = x
+        lastY = y
+        lastTimeNanos = timeNanos
+    }
+
+    fun predictedX(): Int = predict(lastX, velocityX)
+
+    fun predictedY(): Int = predict(lastY, velocityY)
+
+    fun reset() {
+        lastTimeNanos = NO_TIME
+        velocityX = 0.0
+        velocityY = 0.0
+    }
+
+    private fun predict(position: Int, velocity: Double): Int {
+        val lead = (velocity * horizonNanos).coerceIn(-maxLead.toDouble(), maxLead.toDouble())
+        return (position + lead).roundToInt().coerceIn(0, 255)
+    }
+}
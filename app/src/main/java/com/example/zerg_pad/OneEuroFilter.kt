@@ -0,0 +1,55 @@
+package com.example.zerg_pad
+
+import kotlin.math.abs
+import kotlin.math.roundToInt
+
+/**
+ * Speed-adaptive low-pass filter ("1€ filter", Casiez, Roussel and Vogel, CHI 2012).
+ *
+ * The cutoff frequency rises with the filtered speed of the input: [minCutoffHz] at rest,
+ * so small tremor is smoothed hard, plus [beta] Hz per wire unit per second, so fast flicks
+ * pass with little lag. Works on timestamped samples like the timed [LowPassFilter.filter].
+ */
+class OneEuroFilter(
+    private val minCutoffHz: Float = DEFAULT_MIN_CUTOFF,
+    private val beta: Float = DEFAULT_BETA,
+    private val derivativeCutoffHz: Float = DEFAULT_DERIVATIVE_CUTOFF
+) {
+    private var lastValue = PacketEncoder.JOYSTICK_CENTER.toFloat()
+    // Wire units per second
+    private var lastSpeed = 0f
+    private var lastTimeNanos = NO_TIME
+
+    companion object {
+        const val DEFAULT_MIN_CUTOFF = 1f
+        const val DEFAULT_BETA = 0.007f
+        const val DEFAULT_DERIVATIVE_CUTOFF = 1f
+        // Assumed gap before the first sample after reset
+        private const val FIRST_PERIOD_SECONDS = 1f / LowPassFilter.NOMINAL_RATE_HZ
+        private const val NO_TIME = Long.MIN_VALUE
+    }
+
+    fun filter(newValue: Int, timeNanos: Long): Int {
+        val seconds = if (lastTimeNanos == NO_TIME) FIRST_PERIOD_SECONDS else (timeNanos - lastTimeNanos) / 1e9f
+        lastTimeNanos = timeNanos
+        if (seconds <= 0f) return lastValue.roundToInt().coerceIn(0, 255)
+
+        val speed = (newValue - lastValue) / seconds
+        lastSpeed += weight(derivativeCutoffHz, seconds) * (speed - lastSpeed)
+        val cutoff = minCutoffHz + beta * abs(lastSpeed)
+        lastValue += weight(cutoff, seconds) * (newValue - lastValue)
+        return lastValue.roundToInt().coerceIn(0, 255)
+    }
+
+    fun reset(value: Int) {
+        lastValue = value.toFloat()
+        lastSpeed = 0f
+        lastTimeNanos = NO_TIME
+    }
+
+    // Smoothing factor of a first-order low-pass at cutoffHz over the given step
+    private fun weight(cutoffHz: Float, seconds: Float): Float {
+        val timeConstant = 1f / (2f * Math.PI.toFloat() * cutoffHz)
+        return 1f / (1f + timeConstant / seconds)
+    }
+}
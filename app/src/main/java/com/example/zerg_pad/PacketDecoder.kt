@@ -0,0 +1,158 @@
+package com.example.zerg_pad
+
+/**
+ * Receiving side of [PacketEncoder]: splits a byte stream back into commands. It is the
+ * reference for robot firmware, and is used by tests and bridges.
+ *
+ * Bytes may arrive in any chunks. Bytes that do not start a frame are skipped. In v2 a
+ * frame with a bad CRC is dropped and the search for a prefix restarts at its second byte.
+ * A frame whose sequence number is not ahead of the last accepted one, i.e. the same or up
+ * to 128 behind, is a replay ([PacketWriter] resends a failed batch with the same numbers)
+ * and is dropped too. A forward jump of less than 128 is counted in [lostFrames].
+ *
+ * In v3 the frames are first split at the COBS delimiter by a [CobsDecoder]; a frame that
+ * then has the wrong size for its prefix counts as a [crcErrors] too.
+ *
+ * Does not allocate after construction; not thread-safe.
+ */
+class PacketDecoder(private val version: Int = PacketEncoder.PROTOCOL_V2) {
+    fun interface Listener {
+        /** A packed stick or a [PacketEncoder.buttonCommand], see [PacketEncoder.encodeCommand]. */
+        fun onCommand(command: Int)
+    }
+
+    // Bytes of the frame being assembled; pending[0] is always a prefix
+    private val pending = ByteArray(PacketEncoder.MAX_FRAME_SIZE_V2)
+    private var pendingLength = 0
+    private var lastSequence = NO_SEQUENCE
+    private val cobs = CobsDecoder(PacketEncoder.MAX_FRAME_SIZE_V2)
+    // Listener of the running decode() call, for the COBS frames
+    private var commandListener: Listener? = null
+    private val cobsListener = CobsDecoder.FrameListener { frame, length -> completeCobsFrame(frame, length) }
+
+    var frames = 0L
+        private set
+    var crcErrors = 0L
+        private set
+    var lostFrames = 0L
+        private set
+    var duplicates = 0L
+        private set
+    var skippedBytes = 0L
+        private set
+
+    companion object {
+        private const val NO_SEQUENCE = -1
+        // Steps of the 8-bit sequence from here on count as going backwards
+        private const val REPLAY_WINDOW = 128
+    }
+
+    fun decode(src: ByteArray, offset: Int, length: Int, listener: Listener) {
+        if (version >= PacketEncoder.PROTOCOL_V3) {
+            commandListener = listener
+            cobs.decode(src, offset, length, cobsListener)
+            commandListener = null
+            return
+        }
+        for (i in offset until offset + length) {
+            if (pendingLength == 0 && frameSize(src[i]) == 0) {
+                skippedBytes++
+                continue
+            }
+            pending[pendingLength++] = src[i]
+            if (pendingLength == frameSize(pending[0])) completeFrame(listener)
+        }
+    }
+
+    /** Forgets a partly received frame and the sequence, e.g. after a reconnect. */
+    fun reset() {
+        pendingLength = 0
+        lastSequence = NO_SEQUENCE
+        cobs.reset()
+    }
+
+    private fun frameSize(prefix: Byte): Int =
+        if (version >= PacketEncoder.PROTOCOL_V2) {
+            v2FrameSize(prefix)
+        } else {
+            when (prefix) {
+                PacketEncoder.PREFIX_JOYSTICK -> PacketEncoder.JOYSTICK_FRAME_SIZE
+                PacketEncoder.PREFIX_BUTTON -> PacketEncoder.BUTTON_FRAME_SIZE
+                else -> 0
+            }
+        }
+
+    private fun completeFrame(listener: Listener) {
+        val size = pendingLength
+        if (version < PacketEncoder.PROTOCOL_V2) {
+            pendingLength = 0
+            emit(pending, pending[0] == PacketEncoder.PREFIX_BUTTON, 1, listener)
+            return
+        }
+        if (!crcMatches(pending, size)) {
+            crcErrors++
+            resyncAfterBadFrame(listener)
+            return
+        }
+        pendingLength = 0
+        acceptV2Frame(pending, listener)
+    }
+
+    private fun completeCobsFrame(frame: ByteArray, length: Int) {
+        val listener = commandListener ?: return
+        if (length == 0 || length != v2FrameSize(frame[0]) || !crcMatches(frame, length)) {
+            crcErrors++
+            return
+        }
+        acceptV2Frame(frame, listener)
+    }
+
+    private fun v2FrameSize(prefix: Byte): Int = when (prefix) {
+        PacketEncoder.PREFIX_JOYSTICK_V2 -> PacketEncoder.JOYSTICK_FRAME_SIZE_V2
+        PacketEncoder.PREFIX_BUTTON_V2 -> PacketEncoder.BUTTON_FRAME_SIZE_V2
+        else -> 0
+    }
+
+    private fun crcMatches(frame: ByteArray, size: Int): Boolean =
+        PacketEncoder.crc8(frame, 0, size - 1) == (frame[size - 1].toInt() and 0xFF)
+
+    // A v2 frame with a good CRC
+    private fun acceptV2Frame(frame: ByteArray, listener: Listener) {
+        val sequence = frame[1].toInt() and 0xFF
+        if (lastSequence != NO_SEQUENCE) {
+            val step = (sequence - lastSequence) and 0xFF
+            if (step == 0 || step >= REPLAY_WINDOW) {
+                duplicates++
+                return
+            }
+            lostFrames += step - 1
+        }
+        lastSequence = sequence
+        emit(frame, frame[0] == PacketEncoder.PREFIX_BUTTON_V2, 2, listener)
+    }
+
+    private fun emit(frame: ByteArray, button: Boolean, payload: Int, listener: Listener) {
+        frames++
+        listener.onCommand(
+            if (button) {
+                PacketEncoder.buttonCommand(frame[payload], frame[payload + 1] == PacketEncoder.STATE_PRESSED)
+            } else {
+                PacketEncoder.packStick(
+                    frame[payload].toInt(), frame[payload + 1].toInt(), frame[payload + 2].toInt()
+                )
+            }
+        )
+    }
+
+    // The prefix was not a real frame start: look for the next one among the bytes after it
+    private fun resyncAfterBadFrame(listener: Listener) {
+        var start = 1
+        while (start < pendingLength && frameSize(pending[start]) == 0) start++
+        skippedBytes += start
+        val rest = pendingLength - start
+        System.arraycopy(pending, start, pending, 0, rest)
+        pendingLength = rest
+        // What is left of a bad joystick frame can hold a whole button frame
+        if (rest > 0 && rest == frameSize(pending[0])) completeFrame(listener)
+    }
+}
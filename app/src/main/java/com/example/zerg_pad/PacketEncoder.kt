@@ -0,0 +1,182 @@
+package com.example.zerg_pad
+
+import kotlin.math.roundToInt
+
+/**
+ * Wire encoding of controller frames (see README):
+ * joystick `F1 XX YY PP`, button `F0 id state`.
+ *
+ * Protocol v2, used only after [ProtocolHandshake] agreed on it, adds a sequence number
+ * and a [crc8] of the preceding bytes: joystick `E1 SS XX YY PP CC`, button
+ * `E0 SS id state CC`. The payload is the same as in v1.
+ *
+ * Protocol v3 sends the v2 frame COBS-encoded ([cobsEncodeInPlace]) and ends it with 0x00,
+ * so a receiver finds the next frame boundary right after lost bytes instead of hunting
+ * for a prefix byte that is also a valid axis value.
+ *
+ * All functions write into caller-owned arrays and never allocate, so they can be used on
+ * the per-sample hot path. Joystick state is passed around packed into a single Int
+ * (see [packStick]) so it can live in an atomic without boxing; a "command" is either a
+ * packed stick or a [buttonCommand], and can be turned back into a frame by [encodeCommand].
+ */
+object PacketEncoder {
+    const val PREFIX_JOYSTICK = 0xF1.toByte()
+    const val PREFIX_BUTTON = 0xF0.toByte()
+    const val PREFIX_JOYSTICK_V2 = 0xE1.toByte()
+    const val PREFIX_BUTTON_V2 = 0xE0.toByte()
+    /** `F5 version`, see [ProtocolHandshake] */
+    const val PREFIX_HELLO = 0xF5.toByte()
+
+    const val PROTOCOL_V1 = 1
+    const val PROTOCOL_V2 = 2
+    const val PROTOCOL_V3 = 3
+
+    const val COBS_DELIMITER = 0.toByte()
+
+    const val BUTTON_A = 0x01.toByte()
+    const val BUTTON_B = 0x02.toByte()
+    const val BUTTON_X = 0x03.toByte()
+    const val BUTTON_Y = 0x04.toByte()
+    const val BUTTON_SELECT = 0x05.toByte()
+    const val BUTTON_START = 0x06.toByte()
+    const val BUTTON_L = 0x07.toByte()
+    const val BUTTON_R = 0x08.toByte()
+
+    const val STATE_PRESSED = 0x7F.toByte()
+    const val STATE_RELEASED = 0x00.toByte()
+
+    const val JOYSTICK_CENTER = 127
+    const val COMMAND_BUTTON = 1 shl 24
+
+    const val JOYSTICK_FRAME_SIZE = 4
+    const val BUTTON_FRAME_SIZE = 3
+    const val MAX_FRAME_SIZE = JOYSTICK_FRAME_SIZE
+    const val JOYSTICK_FRAME_SIZE_V2 = JOYSTICK_FRAME_SIZE + 2
+    const val BUTTON_FRAME_SIZE_V2 = BUTTON_FRAME_SIZE + 2
+    const val MAX_FRAME_SIZE_V2 = JOYSTICK_FRAME_SIZE_V2
+    /** Largest frame of any version: the v2 frame plus COBS code byte and delimiter. */
+    const val MAX_ENCODED_FRAME_SIZE = MAX_FRAME_SIZE_V2 + 2
+
+    /** Length of the text produced by [formatHex] for a frame of [MAX_FRAME_SIZE] bytes. */
+    const val MAX_HEX_TEXT_SIZE = MAX_FRAME_SIZE * 3 - 1
+
+    // Both hex digits of every byte value: HEX_PAIRS[2 * b], HEX_PAIRS[2 * b + 1]
+    private val HEX_PAIRS = CharArray(512).also {
+        val digits = "0123456789ABCDEF"
+        for (b in 0 until 256) {
+            it[2 * b] = digits[b ushr 4]
+            it[2 * b + 1] = digits[b and 0x0F]
+        }
+    }
+
+    // CRC-8 with polynomial 0x07, initial value 0 (CRC-8/SMBUS), one entry per byte value
+    private val CRC8_TABLE = ByteArray(256).also {
+        for (b in 0 until 256) {
+            var crc = b
+            repeat(8) { crc = if (crc and 0x80 != 0) (crc shl 1) xor 0x07 else crc shl 1 }
+            it[b] = crc.toByte()
+        }
+    }
+
+    fun encodeJoystick(dst: ByteArray, offset: Int, x: Int, y: Int, power: Int): Int {
+        dst[offset] = PREFIX_JOYSTICK
+        dst[offset + 1] = x.toByte()
+        dst[offset + 2] = y.toByte()
+        dst[offset + 3] = power.toByte()
+        return JOYSTICK_FRAME_SIZE
+    }
+
+    fun encodeJoystick(dst: ByteArray, offset: Int, packedStick: Int): Int =
+        encodeJoystick(dst, offset, stickX(packedStick), stickY(packedStick), stickPower(packedStick))
+
+    fun encodeButton(dst: ByteArray, offset: Int, buttonCode: Byte, pressed: Boolean): Int {
+        dst[offset] = PREFIX_BUTTON
+        dst[offset + 1] = buttonCode
+        dst[offset + 2] = if (pressed) STATE_PRESSED else STATE_RELEASED
+        return BUTTON_FRAME_SIZE
+    }
+
+    /** Maps a normalized axis value in [-1, 1] to the wire range, [JOYSTICK_CENTER] ± 126. */
+    fun axisToWire(value: Float): Int =
+        (JOYSTICK_CENTER + value * (JOYSTICK_CENTER - 1)).roundToInt().coerceIn(0, 255)
+
+    fun packStick(x: Int, y: Int, power: Int): Int =
+        (x and 0xFF) or ((y and 0xFF) shl 8) or ((power and 0xFF) shl 16)
+
+    fun stickX(packed: Int): Int = packed and 0xFF
+    fun stickY(packed: Int): Int = (packed ushr 8) and 0xFF
+    fun stickPower(packed: Int): Int = (packed ushr 16) and 0xFF
+
+    fun buttonCommand(buttonCode: Byte, pressed: Boolean): Int =
+        COMMAND_BUTTON or ((buttonCode.toInt() and 0xFF) shl 8) or (if (pressed) 1 else 0)
+
+    fun encodeCommand(dst: ByteArray, offset: Int, command: Int): Int =
+        if ((command and COMMAND_BUTTON) != 0) {
+            encodeButton(dst, offset, (command ushr 8).toByte(), (command and 1) != 0)
+        } else {
+            encodeJoystick(dst, offset, command)
+        }
+
+    /**
+     * Encodes [command] in protocol [version]; [sequence] (low 8 bits) is only used from v2 on.
+     * Returns the number of bytes written.
+     */
+    fun encodeFrame(dst: ByteArray, offset: Int, command: Int, version: Int, sequence: Int): Int {
+        if (version < PROTOCOL_V2) return encodeCommand(dst, offset, command)
+        if (version >= PROTOCOL_V3) {
+            val length = encodeFrame(dst, offset + 1, command, PROTOCOL_V2, sequence)
+            return cobsEncodeInPlace(dst, offset, length)
+        }
+        // The v1 frame, shifted right by one for the sequence number, then the new prefix
+        val payload = encodeCommand(dst, offset + 1, command)
+        dst[offset] = if (dst[offset + 1] == PREFIX_BUTTON) PREFIX_BUTTON_V2 else PREFIX_JOYSTICK_V2
+        dst[offset + 1] = sequence.toByte()
+        val end = offset + payload + 1
+        dst[end] = crc8(dst, offset, payload + 1).toByte()
+        return payload + 2
+    }
+
+    /**
+     * COBS-encodes the [length] bytes at `offset + 1` in place: the code byte goes to
+     * [offset], each zero is replaced by the distance to the next one, and the 0x00
+     * delimiter is appended. [length] must be below 254. Returns the encoded size,
+     * `length + 2`. Decoded by [CobsDecoder].
+     */
+    fun cobsEncodeInPlace(dst: ByteArray, offset: Int, length: Int): Int {
+        val end = offset + length + 1
+        var codePosition = offset
+        for (i in offset + 1 until end) {
+            if (dst[i] == COBS_DELIMITER) {
+                dst[codePosition] = (i - codePosition).toByte()
+                codePosition = i
+            }
+        }
+        dst[codePosition] = (end - codePosition).toByte()
+        dst[end] = COBS_DELIMITER
+        return length + 2
+    }
+
+    /** CRC-8/SMBUS (polynomial 0x07, initial 0) of [length] bytes of [src], 0..255. */
+    fun crc8(src: ByteArray, offset: Int, length: Int): Int {
+        var crc = 0
+        for (i in offset until offset + length) {
+            crc = CRC8_TABLE[(crc xor src[i].toInt()) and 0xFF].toInt()
+        }
+        return crc and 0xFF
+    }
+
+    /**
+     * Writes [length] bytes of [src] as space separated upper-case hex ("F1 7F 7F 00")
+     * into [dst] at [dstOffset] and returns the number of chars written.
+     */
+    fun formatHex(src: ByteArray, offset: Int, length: Int, dst: CharArray, dstOffset: Int = 0): Int {
+        var pos = dstOffset
+        for (i in offset until offset + length) {
+            if (pos > dstOffset) dst[pos++] = ' '
+            val pair = (src[i].toInt() and 0xFF) shl 1
+            dst[pos++] = HEX_PAIRS[pair]
+            dst[pos++] = HEX_PAIRS[pair + 1]
+        }
+        return pos - dstOffset
+    }
+}
@@ -0,0 +1,261 @@
+package com.example.zerg_pad
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import java.io.IOException
+import java.io.OutputStream
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.locks.LockSupport
+
+/**
+ * Single ordered writer for the Bluetooth output stream with two lanes.
+ *
+ * Button frames ([sendButton]) go into a lossless FIFO lane that is always drained first,
+ * so a press/release is never dropped and never waits behind stick traffic.
+ * Joystick frames ([sendStick]) are conflated: only the newest position is kept pending,
+ * so a stalled link adds at most one frame of stick lag instead of a backlog.
+ *
+ * Both lanes hold packed ints in preallocated storage and frames are encoded into one
+ * reusable buffer right before the write, so the steady-state path from [sendStick] /
+ * [sendButton] to `OutputStream.write` does not allocate. The writer is one long-lived
+ * coroutine that parks while there is nothing to send.
+ *
+ * After waking up the writer waits [batchWindowMillis] and then packs everything pending
+ * into a single `write()` + `flush()`, so a button change together with a stick move costs
+ * one RFCOMM frame instead of several. Use 0 to write as soon as something is queued.
+ * [onStickWritten] is called on the writer thread after each write that carried a stick frame.
+ *
+ * Frames are encoded in [protocolVersion]; from v2 on every frame written gets the next
+ * sequence number, and a stale stick frame taken back out of a failed batch returns its number.
+ */
+class PacketWriter(
+    private val scope: CoroutineScope,
+    private val outputProvider: () -> OutputStream?,
+    private val maxRetries: Int = DEFAULT_MAX_RETRIES,
+    private val batchWindowMillis: Long = DEFAULT_BATCH_WINDOW,
+    private val onStickWritten: () -> Unit = {},
+    private val onWriteFailed: () -> Unit = {}
+) {
+    // Button lane: ring of button commands, grows only if it ever fills up
+    private val buttonLock = Any()
+    private var buttonRing = IntArray(BUTTON_LANE_CAPACITY)
+    private var buttonHead = 0
+    private var buttonCount = 0
+    // Bumped by discardQueued(); the writer only drops the lanes if no discard came in
+    // between, so frames queued right after one are never wiped by a stale decision
+    private var queueGeneration = 0
+
+    // Joystick lane: latest packed position or NO_STICK
+    private val pendingStick = AtomicInteger(NO_STICK)
+
+    // Batch currently being written; kept until the write succeeds so it can be retried.
+    // A stick frame, if any, is always the last one in the batch.
+    private val batch = ByteArray(BATCH_CAPACITY)
+    private var batchLength = 0
+    private var batchPackets = 0
+    private var batchEndsWithStick = false
+    private var stickFrameSize = 0
+    private var sequence = 0
+
+    /** Set before the stream of a new link is handed out, see [ProtocolHandshake]. */
+    @Volatile var protocolVersion = PacketEncoder.PROTOCOL_V1
+
+    private val idle = AtomicBoolean(false)
+    @Volatile private var writerThread: Thread? = null
+    @Volatile private var closed = false
+    private var writerJob: Job? = null
+
+    // Counters, updated by the writer only
+    @Volatile var writeCount = 0L
+        private set
+    @Volatile var packetCount = 0L
+        private set
+    @Volatile var byteCount = 0L
+        private set
+
+    val packetsPerWrite: Double
+        get() = if (writeCount == 0L) 0.0 else packetCount.toDouble() / writeCount
+
+    val bytesPerWrite: Double
+        get() = if (writeCount == 0L) 0.0 else byteCount.toDouble() / writeCount
+
+    companion object {
+        const val DEFAULT_MAX_RETRIES = 2
+        const val RETRY_DELAY_STEP = 15L
+        const val DEFAULT_BATCH_WINDOW = 2L
+        const val BUTTON_LANE_CAPACITY = 32
+        const val BATCH_CAPACITY = 64
+        private const val NO_STICK = -1
+    }
+
+    fun start() {
+        if (writerJob != null) return
+        writerJob = scope.launch {
+            var attempts = 0
+            while (!closed) {
+                try {
+                    val generation = synchronized(buttonLock) { queueGeneration }
+                    val stream = outputProvider()
+                    if (stream == null) discardPending(generation) else drainPending(stream)
+                    attempts = 0
+                } catch (e: IOException) {
+                    attempts++
+                    if (attempts > maxRetries) {
+                        batchLength = 0
+                        attempts = 0
+                        onWriteFailed()
+                    } else {
+                        delay(RETRY_DELAY_STEP * attempts)
+                        // A newer stick position makes this one stale; send that instead of retrying
+                        if (batchEndsWithStick && pendingStick.get() != NO_STICK) {
+                            batchLength -= stickFrameSize
+                            batchPackets--
+                            sequence--
+                            batchEndsWithStick = false
+                        }
+                    }
+                    continue
+                }
+                awaitWork()
+                if (batchWindowMillis > 0) {
+                    LockSupport.parkNanos(batchWindowMillis * 1_000_000L)
+                }
+            }
+        }
+    }
+
+    /** Queues a button frame; button frames are never dropped or reordered. */
+    fun sendButton(buttonCode: Byte, pressed: Boolean) {
+        val value = PacketEncoder.buttonCommand(buttonCode, pressed)
+        synchronized(buttonLock) {
+            if (buttonCount == buttonRing.size) growButtonRing()
+            buttonRing[(buttonHead + buttonCount) % buttonRing.size] = value
+            buttonCount++
+        }
+        wakeUp()
+    }
+
+    /** Replaces the pending joystick frame with the given position. */
+    fun sendStick(x: Int, y: Int, power: Int) {
+        sendStick(PacketEncoder.packStick(x, y, power))
+    }
+
+    /** Same as above, for a position packed with [PacketEncoder.packStick]. */
+    fun sendStick(packedStick: Int) {
+        pendingStick.set(packedStick)
+        wakeUp()
+    }
+
+    /** Drops every frame queued but not yet taken by the writer. */
+    fun discardQueued() {
+        synchronized(buttonLock) {
+            queueGeneration++
+            clearLanes()
+        }
+    }
+
+    fun close() {
+        closed = true
+        writerJob?.cancel()
+        writerJob = null
+        idle.set(false)
+        LockSupport.unpark(writerThread)
+    }
+
+    /**
+     * Writes every pending frame to [stream], buttons first, packing as many frames as fit
+     * into each write. On [IOException] the failed batch stays buffered and is written
+     * again by the next call.
+     */
+    internal fun drainPending(stream: OutputStream) {
+        while (batchLength > 0 || fillBatch()) {
+            stream.write(batch, 0, batchLength)
+            stream.flush()
+            writeCount++
+            packetCount += batchPackets
+            byteCount += batchLength
+            batchLength = 0
+            if (batchEndsWithStick) onStickWritten()
+        }
+    }
+
+    private fun fillBatch(): Boolean {
+        batchPackets = 0
+        batchEndsWithStick = false
+        while (!batchEndsWithStick && batchLength + PacketEncoder.MAX_ENCODED_FRAME_SIZE <= batch.size) {
+            if (!appendNextFrame()) break
+            batchPackets++
+        }
+        return batchLength > 0
+    }
+
+    private fun appendNextFrame(): Boolean {
+        var button = -1
+        synchronized(buttonLock) {
+            if (buttonCount > 0) {
+                button = buttonRing[buttonHead]
+                buttonHead = (buttonHead + 1) % buttonRing.size
+                buttonCount--
+            }
+        }
+        val version = protocolVersion
+        if (button >= 0) {
+            batchLength += PacketEncoder.encodeFrame(batch, batchLength, button, version, sequence++)
+            return true
+        }
+        val stick = pendingStick.getAndSet(NO_STICK)
+        if (stick == NO_STICK) return false
+        stickFrameSize = PacketEncoder.encodeFrame(batch, batchLength, stick, version, sequence++)
+        batchLength += stickFrameSize
+        batchEndsWithStick = true
+        return true
+    }
+
+    private fun hasPending(): Boolean =
+        pendingStick.get() != NO_STICK || synchronized(buttonLock) { buttonCount > 0 }
+
+    // No stream: drop what is queued, unless discardQueued() ran since [generation] was read
+    private fun discardPending(generation: Int) {
+        batchLength = 0
+        synchronized(buttonLock) {
+            if (generation == queueGeneration) clearLanes()
+        }
+    }
+
+    // Under buttonLock
+    private fun clearLanes() {
+        pendingStick.set(NO_STICK)
+        buttonHead = 0
+        buttonCount = 0
+    }
+
+    private fun awaitWork() {
+        writerThread = Thread.currentThread()
+        idle.set(true)
+        if (hasPending()) {
+            idle.set(false)
+            return
+        }
+        while (idle.get() && !closed) {
+            LockSupport.park(this)
+        }
+    }
+
+    private fun wakeUp() {
+        if (idle.compareAndSet(true, false)) {
+            LockSupport.unpark(writerThread)
+        }
+    }
+
+    private fun growButtonRing() {
+        val grown = IntArray(buttonRing.size * 2)
+        for (i in 0 until buttonCount) {
+            grown[i] = buttonRing[(buttonHead + i) % buttonRing.size]
+        }
+        buttonRing = grown
+        buttonHead = 0
+    }
+}
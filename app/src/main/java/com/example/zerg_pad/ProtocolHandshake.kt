@@ -0,0 +1,47 @@
+package com.example.zerg_pad
+
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+
+/**
+ * Version negotiation right after the link opens.
+ *
+ * The app sends `F5 vv` with the highest version it wants to use. A robot that knows the
+ * newer protocols answers `F5 vv` with the version it picked; an old sketch skips the
+ * unknown prefix and never answers, so after [DEFAULT_TIMEOUT] the link stays on v1. Any
+ * reply that is not a version between v1 and the offered one also means v1.
+ */
+object ProtocolHandshake {
+    const val DEFAULT_TIMEOUT = 300L
+    private const val POLL_INTERVAL = 5L
+
+    /**
+     * Runs the exchange and returns the agreed version. Blocks for up to [timeoutMillis];
+     * [input] null (a write-only link) means v1 without asking.
+     */
+    @Throws(IOException::class)
+    fun negotiate(input: InputStream?, output: OutputStream, maxVersion: Int, timeoutMillis: Long): Int {
+        if (input == null || maxVersion <= PacketEncoder.PROTOCOL_V1) return PacketEncoder.PROTOCOL_V1
+        output.write(byteArrayOf(PacketEncoder.PREFIX_HELLO, maxVersion.toByte()))
+        output.flush()
+
+        // Not every stream supports a read timeout (Bluetooth sockets do not), so poll
+        val deadline = System.nanoTime() + timeoutMillis * 1_000_000L
+        var helloSeen = false
+        while (System.nanoTime() < deadline) {
+            if (input.available() == 0) {
+                Thread.sleep(POLL_INTERVAL)
+                continue
+            }
+            val b = input.read()
+            if (b < 0) break
+            if (helloSeen) {
+                return if (b in PacketEncoder.PROTOCOL_V1..maxVersion) b else PacketEncoder.PROTOCOL_V1
+            }
+            // Bytes before the reply (e.g. a boot message of the sketch) are skipped
+            helloSeen = b.toByte() == PacketEncoder.PREFIX_HELLO
+        }
+        return PacketEncoder.PROTOCOL_V1
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.zerg_pad
+
+import kotlin.random.Random
+
+/**
+ * Exponential backoff with jitter for reconnect attempts.
+ *
+ * The n-th delay is drawn from `[d/2, d]` with `d = initialMillis * 2^n` capped at
+ * [maxMillis], so a robot that is out of range is probed quickly at first and then
+ * about every [maxMillis], and several controllers do not retry in lock-step.
+ */
+class ReconnectBackoff(
+    private val initialMillis: Long = DEFAULT_INITIAL,
+    private val maxMillis: Long = DEFAULT_MAX,
+    private val random: Random = Random.Default
+) {
+    private var failures = 0
+
+    companion object {
+        const val DEFAULT_INITIAL = 250L
+        const val DEFAULT_MAX = 5000L
+    }
+
+    fun nextDelayMillis(): Long {
+        val ceiling = (initialMillis shl failures.coerceAtMost(30)).coerceIn(initialMillis, maxMillis)
+        if (ceiling < maxMillis) failures++
+        val half = ceiling / 2
+        return half + random.nextLong(ceiling - half + 1)
+    }
+
+    fun reset() {
+        failures = 0
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.zerg_pad
+
+import android.content.SharedPreferences
+
+/**
+ * RFCOMM channel last resolved through SDP for each device address, kept in
+ * [SharedPreferences] so a reconnect (also after an app restart) can skip the SDP query.
+ */
+class RfcommChannelCache(private val prefs: SharedPreferences) {
+
+    companion object {
+        const val PREFS_NAME = "RfcommChannels"
+        const val NO_CHANNEL = -1
+
+        // Valid RFCOMM server channels
+        private val CHANNEL_RANGE = 1..30
+    }
+
+    fun get(address: String): Int {
+        val channel = prefs.getInt(address, NO_CHANNEL)
+        return if (channel in CHANNEL_RANGE) channel else NO_CHANNEL
+    }
+
+    fun put(address: String, channel: Int) {
+        if (channel !in CHANNEL_RANGE || prefs.getInt(address, NO_CHANNEL) == channel) return
+        prefs.edit().putInt(address, channel).apply()
+    }
+
+    fun remove(address: String) {
+        prefs.edit().remove(address).apply()
+    }
+}
@@ -0,0 +1,147 @@
+package com.example.zerg_pad
+
+import android.bluetooth.BluetoothDevice
+import android.bluetooth.BluetoothSocket
+import android.util.Log
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+import java.util.UUID
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.ScheduledThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * [Transport] over a Bluetooth RFCOMM socket (HC-05 and similar SPP modules).
+ *
+ * If [channelCache] knows the channel [device] used last time, the socket is first opened
+ * directly on that channel, which skips the SDP query (typically several hundred ms).
+ * If that is refused the regular SDP connect is used, and the channel it resolves replaces
+ * the entry. If the direct attempt gets no answer within [directConnectTimeoutMillis], the
+ * device is out of range and SDP would only wait out another page timeout, so the attempt
+ * fails right away and the entry is kept for the next reconnect. Every attempt is timed
+ * into [stats].
+ *
+ * Direct-channel sockets and the resolved channel are only reachable through hidden
+ * APIs; if they are not available this behaves exactly like a plain SDP connect.
+ */
+class RfcommTransport(
+    private val device: BluetoothDevice,
+    private val channelCache: RfcommChannelCache,
+    private val stats: ConnectStats,
+    private val directConnectTimeoutMillis: Long = DEFAULT_DIRECT_CONNECT_TIMEOUT
+) : Transport {
+
+    @Volatile private var socket: BluetoothSocket? = null
+    @Volatile private var closed = false
+
+    companion object {
+        val SPP_UUID: UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB")
+        const val DEFAULT_DIRECT_CONNECT_TIMEOUT = 3000L
+        private const val TAG = "BT_Zerg"
+
+        // Closes direct-channel sockets that run over their budget
+        private val timeouts = ScheduledThreadPoolExecutor(1) { task ->
+            Thread(task, "RfcommDirectTimeout").apply { isDaemon = true }
+        }.apply { removeOnCancelPolicy = true }
+    }
+
+    override fun open(): OutputStream {
+        val address = device.address
+        val cachedChannel = channelCache.get(address)
+        if (cachedChannel != RfcommChannelCache.NO_CHANNEL) {
+            val start = System.nanoTime()
+            val timedOut = AtomicBoolean(false)
+            var timeout: ScheduledFuture<*>? = null
+            try {
+                val directSocket = createChannelSocket(cachedChannel)
+                timeout = timeouts.schedule({
+                    timedOut.set(true)
+                    closeQuietly(directSocket)
+                }, directConnectTimeoutMillis, TimeUnit.MILLISECONDS)
+                val stream = connect(directSocket)
+                record(ConnectStats.Method.CACHED_CHANNEL, start, true)
+                return stream
+            } catch (e: Exception) {
+                record(ConnectStats.Method.CACHED_CHANNEL, start, false)
+                if (closed) throw IOException("Transport closed", e)
+                if (timedOut.get()) {
+                    throw IOException("No answer on cached channel $cachedChannel within $directConnectTimeoutMillis ms", e)
+                }
+                Log.w(TAG, "Cached channel $cachedChannel failed, falling back to SDP: ${e.message}")
+            } finally {
+                timeout?.cancel(false)
+            }
+        }
+
+        val start = System.nanoTime()
+        try {
+            val newSocket = device.createRfcommSocketToServiceRecord(SPP_UUID)
+            val stream = connect(newSocket)
+            record(ConnectStats.Method.SDP, start, true)
+            // Replaces a stale entry; without the hidden API a failing entry cannot be fixed, so drop it
+            val channel = resolvedChannel(newSocket)
+            if (channel != null) channelCache.put(address, channel)
+            else if (cachedChannel != RfcommChannelCache.NO_CHANNEL) channelCache.remove(address)
+            return stream
+        } catch (e: IOException) {
+            record(ConnectStats.Method.SDP, start, false)
+            throw e
+        }
+    }
+
+    override val isOpen: Boolean
+        get() = try {
+            socket?.isConnected == true
+        } catch (e: Exception) {
+            false
+        }
+
+    override val inputStream: InputStream?
+        get() = socket?.inputStream
+
+    override fun close() {
+        closed = true
+        closeQuietly(socket)
+    }
+
+    private fun connect(newSocket: BluetoothSocket): OutputStream {
+        closeQuietly(socket)
+        socket = newSocket
+        if (closed) {
+            closeQuietly(newSocket)
+            throw IOException("Transport closed")
+        }
+        newSocket.connect()
+        return newSocket.outputStream
+    }
+
+    private fun record(method: ConnectStats.Method, start: Long, success: Boolean) {
+        val nanos = System.nanoTime() - start
+        stats.record(method, nanos, success)
+        Log.i(TAG, "Connect via $method: ${nanos / 1_000_000L} ms, ${if (success) "ok" else "failed"}")
+    }
+
+    // Hidden BluetoothDevice.createRfcommSocket(int): connects without an SDP lookup
+    private fun createChannelSocket(channel: Int): BluetoothSocket =
+        device.javaClass.getMethod("createRfcommSocket", Int::class.javaPrimitiveType)
+            .invoke(device, channel) as BluetoothSocket
+
+    // Hidden BluetoothSocket.mPort: the channel SDP resolved for a connected socket
+    private fun resolvedChannel(connected: BluetoothSocket): Int? = try {
+        BluetoothSocket::class.java.getDeclaredField("mPort")
+            .apply { isAccessible = true }
+            .getInt(connected)
+    } catch (e: Exception) {
+        null
+    }
+
+    private fun closeQuietly(target: BluetoothSocket?) {
+        try {
+            target?.close()
+        } catch (e: IOException) {
+            // Socket already dead, nothing to release
+        }
+    }
+}
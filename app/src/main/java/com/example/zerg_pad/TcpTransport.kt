@@ -0,0 +1,44 @@
+package com.example.zerg_pad
+
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+import java.net.InetSocketAddress
+import java.net.Socket
+
+/**
+ * [Transport] over a TCP socket, e.g. to `127.0.0.1` in tests or to a serial bridge.
+ * Nagle is disabled so every flushed batch leaves immediately, as it does over RFCOMM.
+ */
+class TcpTransport(
+    private val host: String,
+    private val port: Int,
+    private val connectTimeoutMillis: Int = DEFAULT_CONNECT_TIMEOUT
+) : Transport {
+
+    private val socket = Socket()
+
+    companion object {
+        const val DEFAULT_CONNECT_TIMEOUT = 5000
+    }
+
+    override fun open(): OutputStream {
+        socket.tcpNoDelay = true
+        socket.connect(InetSocketAddress(host, port), connectTimeoutMillis)
+        return socket.getOutputStream()
+    }
+
+    override val isOpen: Boolean
+        get() = socket.isConnected && !socket.isClosed
+
+    override val inputStream: InputStream?
+        get() = if (isOpen) socket.getInputStream() else null
+
+    override fun close() {
+        try {
+            socket.close()
+        } catch (e: IOException) {
+            // Socket already dead, nothing to release
+        }
+    }
+}
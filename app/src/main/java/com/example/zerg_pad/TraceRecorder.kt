@@ -0,0 +1,170 @@
+package com.example.zerg_pad
+
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.InputStream
+import java.io.OutputStream
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * Binary trace of the input and output events, cheap enough to stay on in release builds
+ * instead of per-event `Log.d` calls.
+ *
+ * Each record is a [System.nanoTime] timestamp, an event type and three ints, stored in a
+ * preallocated ring that keeps the newest [capacity] records. [record] takes no lock and
+ * does not allocate; any thread may record while another reads. Records are turned into
+ * text only on demand: [dump] for the live ring, [writeTo] + [decode] for a file.
+ */
+class TraceRecorder(capacity: Int = DEFAULT_CAPACITY) {
+    private val capacity = Integer.highestOneBit(capacity.coerceAtLeast(1))
+    private val mask = this.capacity - 1L
+    // Per slot: sequence number (published last), time, type | a, b | c
+    private val slots = AtomicLongArray(this.capacity * SLOT_SIZE)
+    private val next = AtomicLong()
+
+    @Volatile var enabled = true
+
+    init {
+        for (i in 0 until slots.length() step SLOT_SIZE) slots.set(i, UNPUBLISHED)
+    }
+
+    fun interface Visitor {
+        fun onRecord(timeNanos: Long, type: Int, a: Int, b: Int, c: Int)
+    }
+
+    companion object {
+        const val DEFAULT_CAPACITY = 4096
+        const val DUMP_FILE_NAME = "trace.bin"
+
+        /** angle, power, direction reported by [ZergJoystickView] */
+        const val JOYSTICK = 1
+        const val JOYSTICK_RELEASED = 2
+        /** frames, average and max microseconds of the control screen's frames, see [FrameTimeMonitor] */
+        const val DRAW_STATS = 3
+        /** x, y, power of a transmitted stick state */
+        const val STICK_SENT = 4
+        /** button code, 1 if pressed */
+        const val BUTTON = 5
+        /** [ConnectionManager.State] ordinal */
+        const val CONNECTION = 6
+        /**
+         * x, y in wire units of a touch sample before any filtering, stamped with its event
+         * time; only while [ControlSession.recordRawSamples]
+         */
+        const val RAW_SAMPLE = 7
+
+        private val TYPE_NAMES = arrayOf("?", "joystick", "released", "frames", "stick", "button", "connection", "sample")
+
+        private const val SLOT_SIZE = 4
+        private const val FILE_MAGIC = 0x5A545243 // "ZTRC"
+        private const val UNPUBLISHED = -1L
+
+        /** Recorder shared by the views, the session and the activities. */
+        @JvmStatic
+        val shared = TraceRecorder()
+
+        /** Reads a file written by [writeTo]. */
+        fun decode(input: InputStream, visitor: Visitor) {
+            val data = DataInputStream(input.buffered())
+            if (data.readInt() != FILE_MAGIC) throw IllegalArgumentException("Not a trace file")
+            try {
+                while (true) {
+                    visitor.onRecord(data.readLong(), data.readInt(), data.readInt(), data.readInt(), data.readInt())
+                }
+            } catch (e: EOFException) {
+                // End of the records
+            }
+        }
+
+        /** One line per record, times in milliseconds relative to the first record. */
+        fun format(out: Appendable): Visitor {
+            var start = Long.MIN_VALUE
+            return Visitor { timeNanos, type, a, b, c ->
+                if (start == Long.MIN_VALUE) start = timeNanos
+                val name = TYPE_NAMES.getOrElse(type) { TYPE_NAMES[0] }
+                out.append("%10.3f %-10s".format((timeNanos - start) / 1e6, name))
+                when (type) {
+                    // Wire values as the quantizer makes them: X right, Y down; the view's angle
+                    // has 90 at the right
+                    JOYSTICK -> {
+                        val radians = Math.toRadians((a - 90).toDouble())
+                        val magnitude = b.coerceIn(0, 100) / 100.0
+                        out.append(
+                            "angle %3d power %3d direction %d  X: %3d Y: %3d".format(
+                                a, b, c,
+                                PacketEncoder.axisToWire((Math.cos(radians) * magnitude).toFloat()),
+                                PacketEncoder.axisToWire((-Math.sin(radians) * magnitude).toFloat())
+                            )
+                        )
+                    }
+                    CONNECTION -> out.append(ConnectionManager.State.values().getOrNull(a)?.name ?: "$a")
+                    else -> out.append("%d %d %d".format(a, b, c))
+                }
+                out.append('\n')
+            }
+        }
+    }
+
+    @JvmOverloads
+    fun record(type: Int, a: Int = 0, b: Int = 0, c: Int = 0) {
+        recordAt(System.nanoTime(), type, a, b, c)
+    }
+
+    /** Like [record], for an event that happened at [timeNanos] on the [System.nanoTime] clock. */
+    fun recordAt(timeNanos: Long, type: Int, a: Int, b: Int, c: Int) {
+        if (!enabled) return
+        val sequence = next.getAndIncrement()
+        val base = (sequence and mask).toInt() * SLOT_SIZE
+        slots.set(base, UNPUBLISHED)
+        slots.lazySet(base + 1, timeNanos)
+        slots.lazySet(base + 2, (type.toLong() shl 32) or (a.toLong() and 0xFFFFFFFFL))
+        slots.lazySet(base + 3, (b.toLong() shl 32) or (c.toLong() and 0xFFFFFFFFL))
+        slots.set(base, sequence)
+    }
+
+    /** Visits the retained records from oldest to newest; records being written are skipped. */
+    fun forEach(visitor: Visitor) {
+        val end = next.get()
+        var sequence = (end - capacity).coerceAtLeast(0L)
+        while (sequence < end) {
+            val base = (sequence and mask).toInt() * SLOT_SIZE
+            if (slots.get(base) == sequence) {
+                val time = slots.get(base + 1)
+                val typeAndA = slots.get(base + 2)
+                val bAndC = slots.get(base + 3)
+                // Still the same record after reading it, i.e. not overwritten meanwhile
+                if (slots.get(base) == sequence) {
+                    visitor.onRecord(time, (typeAndA ushr 32).toInt(), typeAndA.toInt(), (bAndC ushr 32).toInt(), bAndC.toInt())
+                }
+            }
+            sequence++
+        }
+    }
+
+    /** Writes the retained records in the format read by [decode]. */
+    fun writeTo(output: OutputStream) {
+        val data = DataOutputStream(output.buffered())
+        data.writeInt(FILE_MAGIC)
+        forEach { timeNanos, type, a, b, c ->
+            data.writeLong(timeNanos)
+            data.writeInt(type)
+            data.writeInt(a)
+            data.writeInt(b)
+            data.writeInt(c)
+        }
+        data.flush()
+    }
+
+    /** Text form of the retained records, see [format]. */
+    fun dump(out: Appendable) {
+        forEach(format(out))
+    }
+
+    /** Drops all records; not to be called while another thread records. */
+    fun clear() {
+        next.set(0L)
+        for (i in 0 until slots.length() step SLOT_SIZE) slots.set(i, UNPUBLISHED)
+    }
+}
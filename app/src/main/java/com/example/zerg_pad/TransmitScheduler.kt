@@ -0,0 +1,91 @@
+package com.example.zerg_pad
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.launch
+import java.util.concurrent.locks.LockSupport
+
+/**
+ * Fixed-rate transmit clock for the joystick state.
+ *
+ * Every tick (on a monotonic [System.nanoTime] grid, [rateHz] clamped to 20–200 Hz) the
+ * current state is read from [sampler] and handed to [transmitter] if it differs from the
+ * last transmitted one, or if [keepAliveMillis] have passed since then, so a stick held
+ * still is still refreshed on the receiver. States are packed Ints (see
+ * [PacketEncoder.packStick]); [NO_STATE] means "nothing to send". [Sampler] and [Transmitter]
+ * take them unboxed, so a tick does not allocate.
+ */
+class TransmitScheduler(
+    private val scope: CoroutineScope,
+    rateHz: Int = DEFAULT_RATE_HZ,
+    keepAliveMillis: Long = DEFAULT_KEEP_ALIVE,
+    private val sampler: Sampler,
+    private val transmitter: Transmitter
+) {
+    val periodNanos: Long = 1_000_000_000L / rateHz.coerceIn(MIN_RATE_HZ, MAX_RATE_HZ)
+    private val keepAliveNanos = keepAliveMillis * 1_000_000L
+
+    private var lastState = NO_STATE
+    private var lastTransmitTime = 0L
+    @Volatile private var resendRequested = false
+    @Volatile private var running = false
+    private var tickJob: Job? = null
+
+    fun interface Sampler {
+        fun sample(): Int
+    }
+
+    fun interface Transmitter {
+        fun transmit(state: Int)
+    }
+
+    companion object {
+        const val MIN_RATE_HZ = 20
+        const val MAX_RATE_HZ = 200
+        const val DEFAULT_RATE_HZ = 50
+        const val DEFAULT_KEEP_ALIVE = 250L
+        const val NO_STATE = -1
+    }
+
+    fun start() {
+        if (tickJob != null) return
+        running = true
+        tickJob = scope.launch {
+            var deadline = System.nanoTime()
+            while (running) {
+                val now = System.nanoTime()
+                val wait = deadline - now
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait)
+                    continue
+                }
+                tick(now)
+                deadline += periodNanos
+                // Fell behind by more than a period (e.g. process was frozen): skip missed ticks
+                if (now - deadline > periodNanos) deadline = now + periodNanos
+            }
+        }
+    }
+
+    fun stop() {
+        running = false
+        tickJob?.cancel()
+        tickJob = null
+    }
+
+    /** Makes the next tick transmit the current state even if it has not changed. */
+    fun invalidate() {
+        resendRequested = true
+    }
+
+    internal fun tick(nowNanos: Long) {
+        val state = sampler.sample()
+        if (state == NO_STATE) return
+        if (resendRequested || state != lastState || nowNanos - lastTransmitTime >= keepAliveNanos) {
+            resendRequested = false
+            transmitter.transmit(state)
+            lastState = state
+            lastTransmitTime = nowNanos
+        }
+    }
+}
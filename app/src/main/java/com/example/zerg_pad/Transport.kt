@@ -0,0 +1,27 @@
+package com.example.zerg_pad
+
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+
+/**
+ * One connection to the robot, opened by [ConnectionManager]; a new instance is created
+ * for every attempt. The control code only ever writes frames to the stream returned by
+ * [open], so the whole send path runs unchanged over any implementation:
+ * [RfcommTransport] on the phone, [TcpTransport] for JVM tests, desktop benchmarks and a
+ * robot bridge on the local network.
+ */
+interface Transport {
+    /** Blocking; must throw once [close] is called from another thread. */
+    @Throws(IOException::class)
+    fun open(): OutputStream
+
+    val isOpen: Boolean
+
+    /** Stream from the robot once [open] returned; null if the link cannot be read. */
+    val inputStream: InputStream?
+        get() = null
+
+    /** Safe to call more than once and from any thread. */
+    fun close()
+}
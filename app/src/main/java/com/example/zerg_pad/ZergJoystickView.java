@@ -1,14 +1,15 @@
 package com.example.zerg_pad;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Path;
 import android.graphics.PorterDuff;
 import android.graphics.PorterDuffXfermode;
+import android.os.Build;
 import android.util.AttributeSet;
-import android.util.Log;
 import android.view.MotionEvent;
 import android.view.View;
 
@@ -24,9 +25,9 @@ public class ZergJoystickView extends View {
     public static final int BOTTOM = 7;
     public static final int BOTTOM_LEFT = 8;
 
+    private static final int INVALID_POINTER_ID = -1;
+
     // Configuration constants
-    private static final int DEFAULT_LOOP_INTERVAL = 50; // ms
-    private static final int MIN_CHANGE_THRESHOLD = 5; // минимальное изменение для отправки
     private static final int DEFAULT_RAY_WIDTH = 10;
     private static final float BUTTON_SIZE_RATIO = 0.25f;
     private static final float JOYSTICK_SIZE_RATIO = 0.75f;
@@ -40,22 +41,36 @@ public class ZergJoystickView extends View {
     private final Paint arrowPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
     private final Paint clearPaint = new Paint();
     private final Path rayPath = new Path();
+    private final Path arrowPath = new Path();
+
+    // Static base (circle, rays, cutout, arrows), rendered once per size; frames only add the knob
+    private Bitmap baseLayer;
+
+    private final TraceRecorder trace = TraceRecorder.getShared();
+
+    private boolean lowLatencyMode;
 
     // Position tracking
     private int xPosition;
     private int yPosition;
     private double centerX;
     private double centerY;
+    // View size, i.e. the centre in half pixels; exact for odd sizes, see JoystickMath
+    private int centerX2;
+    private int centerY2;
     private int joystickRadius;
+    private JoystickMath.PowerTable powerTable = new JoystickMath.PowerTable(0);
     private int buttonRadius;
     private float innerCircleRadius;
 
     // State management
     private OnJoystickMoveListener listener;
+    private OnJoystickAxisListener axisListener;
     private int lastAngle;
     private int lastPower;
-    private long lastUpdateTime;
     private boolean isJoystickActive;
+    // Pointer that grabbed the knob; other fingers in this view never move or release it
+    private int activePointerId = INVALID_POINTER_ID;
     private int lastSentAngle;
     private int lastSentPower;
 
@@ -98,6 +113,8 @@ public class ZergJoystickView extends View {
 
         centerX = w / 2.0;
         centerY = h / 2.0;
+        centerX2 = w;
+        centerY2 = h;
         xPosition = (int) centerX;
         yPosition = (int) centerY;
 
@@ -105,6 +122,15 @@ public class ZergJoystickView extends View {
         buttonRadius = (int) (size / 2.0 * BUTTON_SIZE_RATIO);
         joystickRadius = (int) (size / 2.0 * JOYSTICK_SIZE_RATIO);
         innerCircleRadius = buttonRadius * INNER_CIRCLE_RATIO;
+        powerTable = new JoystickMath.PowerTable(joystickRadius);
+
+        releaseBaseLayer();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        releaseBaseLayer();
     }
 
     @Override
@@ -121,10 +147,24 @@ public class ZergJoystickView extends View {
 
     @Override
     protected void onDraw(Canvas canvas) {
-        drawMainComponents(canvas);
+        if (baseLayer == null && getWidth() > 0 && getHeight() > 0) {
+            baseLayer = Bitmap.createBitmap(getWidth(), getHeight(), Bitmap.Config.ARGB_8888);
+            // CLEAR punches real transparent holes here, independent of hardware acceleration
+            drawMainComponents(new Canvas(baseLayer));
+        }
+        if (baseLayer != null) {
+            canvas.drawBitmap(baseLayer, 0, 0, null);
+        }
         drawButton(canvas);
     }
 
+    private void releaseBaseLayer() {
+        if (baseLayer != null) {
+            baseLayer.recycle();
+            baseLayer = null;
+        }
+    }
+
     private void drawMainComponents(Canvas canvas) {
         // Draw main circle
         canvas.drawCircle((float) centerX, (float) centerY, joystickRadius, mainCirclePaint);
@@ -182,13 +222,13 @@ public class ZergJoystickView extends View {
         canvas.translate(x, y);
         canvas.rotate(rotation);
 
-        Path arrow = new Path();
-        arrow.moveTo(0, -size);
-        arrow.lineTo(size / 2, 0);
-        arrow.lineTo(-size / 2, 0);
-        arrow.close();
+        arrowPath.reset();
+        arrowPath.moveTo(0, -size);
+        arrowPath.lineTo(size / 2, 0);
+        arrowPath.lineTo(-size / 2, 0);
+        arrowPath.close();
 
-        canvas.drawPath(arrow, arrowPaint);
+        canvas.drawPath(arrowPath, arrowPaint);
         canvas.restore();
     }
 
@@ -198,54 +238,119 @@ public class ZergJoystickView extends View {
 
     @Override
     public boolean onTouchEvent(MotionEvent event) {
-        switch (event.getAction()) {
+        switch (event.getActionMasked()) {
             case MotionEvent.ACTION_DOWN:
-                handleTouchDown(event);
+            case MotionEvent.ACTION_POINTER_DOWN:
+                if (activePointerId == INVALID_POINTER_ID) {
+                    handleTouchDown(event, event.getActionIndex());
+                }
                 return true;
 
             case MotionEvent.ACTION_MOVE:
-                handleTouchMove(event);
+                int pointerIndex = event.findPointerIndex(activePointerId);
+                if (pointerIndex >= 0) {
+                    handleTouchMove(event, pointerIndex);
+                }
+                return true;
+
+            case MotionEvent.ACTION_POINTER_UP:
+                if (event.getPointerId(event.getActionIndex()) == activePointerId) {
+                    handleTouchUp(event);
+                }
                 return true;
 
             case MotionEvent.ACTION_UP:
-                handleTouchUp();
+                if (activePointerId == INVALID_POINTER_ID) {
+                    return true;
+                }
+                handleTouchUp(event);
                 return performClick();
+
+            case MotionEvent.ACTION_CANCEL:
+                if (activePointerId != INVALID_POINTER_ID) {
+                    handleTouchUp(event);
+                }
+                return true;
         }
         return super.onTouchEvent(event);
     }
 
-    private void handleTouchDown(MotionEvent event) {
+    private void handleTouchDown(MotionEvent event, int pointerIndex) {
         isJoystickActive = true;
-        updatePosition(event.getX(), event.getY());
+        activePointerId = event.getPointerId(pointerIndex);
+        if (lowLatencyMode) {
+            // Deliver the rest of this gesture as soon as it arrives instead of once per vsync
+            requestUnbufferedDispatch(event);
+        }
+        setPosition(event.getX(pointerIndex), event.getY(pointerIndex));
+        invalidate();
+        dispatchSample(eventTimeNanos(event));
         sendInitialPosition();
     }
 
-    private void handleTouchMove(MotionEvent event) {
-        updatePosition(event.getX(), event.getY());
+    private void handleTouchMove(MotionEvent event, int pointerIndex) {
+        // A move carries every digitizer sample since the previous one, oldest first;
+        // all of them go to the sample listener, only the latest is drawn
+        int historySize = event.getHistorySize();
+        for (int h = 0; h < historySize; h++) {
+            setPosition(event.getHistoricalX(pointerIndex, h), event.getHistoricalY(pointerIndex, h));
+            dispatchSample(historicalEventTimeNanos(event, h));
+        }
+        setPosition(event.getX(pointerIndex), event.getY(pointerIndex));
+        dispatchSample(eventTimeNanos(event));
+        invalidate();
         checkAndSendPositionUpdate();
     }
 
-    private void handleTouchUp() {
+    private void handleTouchUp(MotionEvent event) {
         isJoystickActive = false;
+        activePointerId = INVALID_POINTER_ID;
         resetPosition();
+        dispatchSample(eventTimeNanos(event));
         sendReleaseEvent();
     }
 
-    private void updatePosition(float x, float y) {
+    private void setPosition(float x, float y) {
         xPosition = (int) x;
         yPosition = (int) y;
 
         // Constrain to joystick circle
         double dx = xPosition - centerX;
         double dy = yPosition - centerY;
-        double distance = Math.sqrt(dx * dx + dy * dy);
 
-        if (distance > joystickRadius) {
+        if (dx * dx + dy * dy > (double) joystickRadius * joystickRadius) {
+            double distance = Math.sqrt(dx * dx + dy * dy);
             xPosition = (int) (centerX + dx * joystickRadius / distance);
             yPosition = (int) (centerY + dy * joystickRadius / distance);
         }
+    }
 
-        invalidate();
+    // MotionEvent times are on the SystemClock.uptimeMillis() clock, the same as
+    // System.nanoTime(). Since API 34 they come in full resolution; before that only whole
+    // milliseconds, so samples batched within one millisecond share a time
+    private static long eventTimeNanos(MotionEvent event) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE) {
+            return event.getEventTimeNanos();
+        }
+        return event.getEventTime() * 1_000_000L;
+    }
+
+    private static long historicalEventTimeNanos(MotionEvent event, int pos) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE) {
+            return event.getHistoricalEventTimeNanos(pos);
+        }
+        return event.getHistoricalEventTime(pos) * 1_000_000L;
+    }
+
+    private void dispatchSample(long eventTimeNanos) {
+        if (axisListener != null) {
+            double dx = xPosition - centerX;
+            double dy = yPosition - centerY;
+            // Plain position; the response curve is up to the receiver, see ResponseCurveStage
+            double scale = joystickRadius == 0 ? 0 : 1.0 / joystickRadius;
+            axisListener.onAxisChanged((float) (dx * scale), (float) (-dy * scale),
+                    (int) Math.round(dx), (int) Math.round(dy), eventTimeNanos);
+        }
     }
 
     private void sendInitialPosition() {
@@ -255,24 +360,17 @@ public class ZergJoystickView extends View {
         sendPositionUpdate(angle, power);
         lastSentAngle = angle;
         lastSentPower = power;
-        lastUpdateTime = System.currentTimeMillis();
     }
 
+    // Send timing is owned by TransmitScheduler; the view only reports actual changes
     private void checkAndSendPositionUpdate() {
         int newAngle = calculateAngle();
         int newPower = calculatePower();
-        long currentTime = System.currentTimeMillis();
-
-        boolean significantChange = Math.abs(newAngle - lastSentAngle) > MIN_CHANGE_THRESHOLD ||
-                Math.abs(newPower - lastSentPower) > MIN_CHANGE_THRESHOLD;
-
-        boolean timeElapsed = (currentTime - lastUpdateTime) >= DEFAULT_LOOP_INTERVAL;
 
-        if (significantChange || timeElapsed) {
+        if (newAngle != lastSentAngle || newPower != lastSentPower) {
             sendPositionUpdate(newAngle, newPower);
             lastSentAngle = newAngle;
             lastSentPower = newPower;
-            lastUpdateTime = currentTime;
         }
     }
 
@@ -283,15 +381,14 @@ public class ZergJoystickView extends View {
         if (listener != null) {
             int direction = calculateDirection(angle, power);
             listener.onValueChanged(angle, power, direction);
-            Log.d("Joystick", String.format("X: %+3d Y: %+3d Power: %3d",
-                    getXValue(angle, power), getYValue(angle, power), power));
+            trace.record(TraceRecorder.JOYSTICK, angle, power, direction);
         }
     }
 
     private void sendReleaseEvent() {
         if (listener != null) {
             listener.onValueChanged(0, 0, CENTER);
-            Log.d("Joystick", "Released: X: 0 Y: 0 Power: 0");
+            trace.record(TraceRecorder.JOYSTICK_RELEASED);
         }
         resetState();
     }
@@ -307,30 +404,16 @@ public class ZergJoystickView extends View {
         lastPower = 0;
         lastSentAngle = 0;
         lastSentPower = 0;
-        lastUpdateTime = 0;
     }
 
     private int calculateAngle() {
-        double dx = xPosition - centerX;
-        double dy = yPosition - centerY;
-
-        if (dx == 0 && dy == 0) return 0;
-
-        double angle = Math.toDegrees(Math.atan2(-dy, dx));
-        return (int) ((angle + 450) % 360); // Normalize to 0-360
+        return JoystickMath.angle(2 * xPosition - centerX2, 2 * yPosition - centerY2);
     }
 
+    // Применяем небольшую нелинейную коррекцию, чтобы легче достигать 100%
+    // но сохранить плавность между всеми значениями: r * (1 + 0.03 * r), see ResponseCurveStage
     private int calculatePower() {
-        double dx = xPosition - centerX;
-        double dy = yPosition - centerY;
-        double distance = Math.sqrt(dx * dx + dy * dy);
-
-        // Применяем небольшую нелинейную коррекцию, чтобы легче достигать 100%
-        // но сохранить плавность между всеми значениями
-        double powerRatio = distance / joystickRadius;
-        double correctedPower = Math.min(1.0, powerRatio * (1.0 + powerRatio * 0.03));
-
-        return (int) Math.round(correctedPower * 100);
+        return powerTable.power(2 * xPosition - centerX2, 2 * yPosition - centerY2);
     }
 
     private int calculateDirection(int angle, int power) {
@@ -353,25 +436,43 @@ public class ZergJoystickView extends View {
         }
     }
 
-    private int getXValue(int angle, int power) {
-        return (int) (Math.cos(Math.toRadians(angle)) * power);
-    }
-
-    private int getYValue(int angle, int power) {
-        return (int) (-Math.sin(Math.toRadians(angle)) * power);
-    }
-
     @Override
     public boolean performClick() {
         super.performClick();
         return true;
     }
 
+    /**
+     * Opt-in: requests unbuffered dispatch for each drag, so moves are not held back
+     * and batched to the display frame. Costs more input events and wakeups per second.
+     */
+    public void setLowLatencyMode(boolean enabled) {
+        lowLatencyMode = enabled;
+    }
+
     public void setOnJoystickMoveListener(OnJoystickMoveListener listener) {
         this.listener = listener;
     }
 
+    /**
+     * Receives every touch sample, including the historical ones batched into a move,
+     * in order and with its event time. Meant for the control path; use
+     * {@link OnJoystickMoveListener} for display.
+     */
+    public void setOnJoystickAxisListener(OnJoystickAxisListener axisListener) {
+        this.axisListener = axisListener;
+    }
+
     public interface OnJoystickMoveListener {
         void onValueChanged(int angle, int power, int direction);
     }
+
+    /**
+     * {@code x} (right) and {@code y} (up) are the knob offset in stick radii, without the
+     * response curve of the reported power (see ResponseCurveStage); {@code dxPixels} /
+     * {@code dyPixels} are the same offset in pixels in screen orientation.
+     */
+    public interface OnJoystickAxisListener {
+        void onAxisChanged(float x, float y, int dxPixels, int dyPixels, long eventTimeNanos);
+    }
 }
\ No newline at end of file
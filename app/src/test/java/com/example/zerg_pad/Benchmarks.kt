@@ -0,0 +1,48 @@
+package com.example.zerg_pad
+
+import org.junit.Assume.assumeTrue
+
+/**
+ * Shared by the benchmark tests. They are skipped in the regular unit suite and run with
+ * `ZERG_BENCHMARKS=1 ./gradlew test`; measurements made along the way by other tests are
+ * printed only then. See also [awaitUntil] for tests that wait on background threads.
+ */
+object Benchmarks {
+    private const val REPEATS = 20
+
+    val enabled = !System.getenv("ZERG_BENCHMARKS").isNullOrEmpty()
+
+    /** Skips the calling test unless benchmarks were asked for. */
+    fun assumeEnabled() {
+        assumeTrue("ZERG_BENCHMARKS not set", enabled)
+    }
+
+    /** Best wall time of [REPEATS] runs; [run] returns a result so the work is not optimized away. */
+    fun bestOf(run: () -> Int): Long {
+        var best = Long.MAX_VALUE
+        repeat(REPEATS) {
+            val start = System.nanoTime()
+            run()
+            best = minOf(best, System.nanoTime() - start)
+        }
+        return best
+    }
+
+    fun report(message: String) {
+        if (enabled) println(message)
+    }
+}
+
+/**
+ * Polls [condition] every few milliseconds until it holds or [timeoutMillis] have passed,
+ * for tests waiting on the writer or connection threads. Returns whether it held; tests
+ * usually assert on the outcome themselves for a better message.
+ */
+fun awaitUntil(timeoutMillis: Long, condition: () -> Boolean): Boolean {
+    val deadline = System.nanoTime() + timeoutMillis * 1_000_000L
+    while (!condition()) {
+        if (System.nanoTime() - deadline >= 0) return false
+        Thread.sleep(5)
+    }
+    return true
+}
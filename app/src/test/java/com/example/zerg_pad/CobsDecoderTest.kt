@@ -0,0 +1,194 @@
+package com.example.zerg_pad
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Random
+
+class CobsDecoderTest {
+
+    private fun cobs(data: ByteArray): ByteArray {
+        val buffer = ByteArray(data.size + 2)
+        System.arraycopy(data, 0, buffer, 1, data.size)
+        return buffer.copyOf(PacketEncoder.cobsEncodeInPlace(buffer, 0, data.size))
+    }
+
+    private fun decodeFrames(bytes: ByteArray, decoder: CobsDecoder = CobsDecoder(256)): List<ByteArray> {
+        val frames = mutableListOf<ByteArray>()
+        decoder.decode(bytes, 0, bytes.size) { frame, length -> frames.add(frame.copyOf(length)) }
+        return frames
+    }
+
+    private fun commands(count: Int, random: Random) = IntArray(count) { i ->
+        if (i % 5 == 0) PacketEncoder.buttonCommand((1 + random.nextInt(8)).toByte(), random.nextBoolean())
+        // Axis values all over the range, including 0x00 and the v1 prefixes 0xF0 / 0xF1
+        else PacketEncoder.packStick(random.nextInt(256), random.nextInt(256), random.nextInt(101))
+    }
+
+    private fun encode(commands: IntArray, version: Int): ByteArray {
+        val out = ByteArray(commands.size * PacketEncoder.MAX_ENCODED_FRAME_SIZE)
+        var length = 0
+        for (i in commands.indices) {
+            length += PacketEncoder.encodeFrame(out, length, commands[i], version, i)
+        }
+        return out.copyOf(length)
+    }
+
+    private fun decodeCommands(bytes: ByteArray, version: Int): List<Int> {
+        val decoded = mutableListOf<Int>()
+        PacketDecoder(version).decode(bytes, 0, bytes.size) { decoded.add(it) }
+        return decoded
+    }
+
+    // How many of the decoded commands match sent ones, in order
+    private fun sentInOrder(commands: IntArray, decoded: List<Int>): Int {
+        var next = 0
+        var count = 0
+        for (command in decoded) {
+            var i = next
+            while (i < commands.size && commands[i] != command) i++
+            if (i < commands.size) {
+                count++
+                next = i + 1
+            }
+        }
+        return count
+    }
+
+    @Test
+    fun encodingMatchesKnownExamples() {
+        assertArrayEquals(byteArrayOf(0x01, 0x01, 0x00), cobs(byteArrayOf(0x00)))
+        assertArrayEquals(byteArrayOf(0x03, 0x11, 0x22, 0x02, 0x33, 0x00), cobs(byteArrayOf(0x11, 0x22, 0x00, 0x33)))
+        assertArrayEquals(byteArrayOf(0x01, 0x01, 0x01, 0x00), cobs(byteArrayOf(0x00, 0x00)))
+        assertArrayEquals(byteArrayOf(0x01, 0x00), cobs(ByteArray(0)))
+    }
+
+    @Test
+    fun framesRoundTrip() {
+        val random = Random(7)
+        val samples = listOf(
+            byteArrayOf(0x00), byteArrayOf(0x00, 0x00, 0x00), ByteArray(0),
+            ByteArray(253) { (it + 1).toByte() }, ByteArray(253)
+        ) + List(200) { ByteArray(random.nextInt(254)).also { bytes -> random.nextBytes(bytes) } }
+        val decoder = CobsDecoder(256)
+        for (data in samples) {
+            val decoded = decodeFrames(cobs(data), decoder)
+            assertEquals(1, decoded.size)
+            assertArrayEquals(data, decoded[0])
+        }
+        assertEquals(samples.size.toLong(), decoder.frames)
+    }
+
+    @Test
+    fun v3FramesAreCobsEncodedV2Frames() {
+        val frame = ByteArray(PacketEncoder.MAX_ENCODED_FRAME_SIZE)
+        val stick = PacketEncoder.packStick(0x00, 0xF0, 0)
+        val length = PacketEncoder.encodeFrame(frame, 0, stick, PacketEncoder.PROTOCOL_V3, 1)
+        assertEquals(PacketEncoder.MAX_ENCODED_FRAME_SIZE, length)
+        assertEquals(0, frame[length - 1].toInt())
+        for (i in 0 until length - 1) assertTrue(frame[i].toInt() != 0)
+
+        val v2 = ByteArray(PacketEncoder.MAX_FRAME_SIZE_V2)
+        val v2Length = PacketEncoder.encodeFrame(v2, 0, stick, PacketEncoder.PROTOCOL_V2, 1)
+        assertArrayEquals(v2.copyOf(v2Length), decodeFrames(frame.copyOf(length))[0])
+    }
+
+    @Test
+    fun fuzzedGarbageNeverOverflows() {
+        val random = Random(11)
+        val decoder = CobsDecoder(PacketEncoder.MAX_FRAME_SIZE_V2)
+        val bytes = ByteArray(4096)
+        repeat(500) {
+            random.nextBytes(bytes)
+            // Mostly non-zero runs of random length, like a stream of misread frames
+            for (i in bytes.indices) if (random.nextInt(12) == 0) bytes[i] = 0
+            decoder.decode(bytes, 0, bytes.size) { _, length ->
+                assertTrue(length <= PacketEncoder.MAX_FRAME_SIZE_V2)
+            }
+            decodeCommands(bytes, PacketEncoder.PROTOCOL_V3)
+        }
+    }
+
+    @Test
+    fun lostCorruptedOrExtraBytesCostAtMostTwoFrames() {
+        val random = Random(3)
+        repeat(2000) { round ->
+            val commands = commands(30, random)
+            val clean = encode(commands, PacketEncoder.PROTOCOL_V3)
+            val position = random.nextInt(clean.size)
+            val damaged = when (round % 3) {
+                0 -> clean.copyOfRange(0, position) + clean.copyOfRange(position + 1, clean.size)
+                1 -> clean.copyOf().also { it[position] = (it[position].toInt() xor (1 shl random.nextInt(8))).toByte() }
+                else -> clean.copyOfRange(0, position) + byteArrayOf(random.nextInt(256).toByte()) +
+                    clean.copyOfRange(position, clean.size)
+            }
+            val decoded = decodeCommands(damaged, PacketEncoder.PROTOCOL_V3)
+            val where = "round $round at $position"
+            assertEquals("$where: unexpected command", decoded.size, sentInOrder(commands, decoded))
+            assertTrue(where, decoded.size >= commands.size - 2)
+        }
+    }
+
+    @Test
+    fun resyncComparedWithPrefixFraming() {
+        val random = Random(5)
+        var v1Lost = 0
+        var v1Wrong = 0
+        var v3Lost = 0
+        val rounds = 2000
+        repeat(rounds) {
+            val commands = commands(30, random)
+            for (version in intArrayOf(PacketEncoder.PROTOCOL_V1, PacketEncoder.PROTOCOL_V3)) {
+                val clean = encode(commands, version)
+                // Drop one byte of the first frames
+                val position = random.nextInt(clean.size / 3)
+                val damaged = clean.copyOfRange(0, position) + clean.copyOfRange(position + 1, clean.size)
+                val decoded = decodeCommands(damaged, version)
+                // v1 can also emit frames that were never sent; only the ones that were count
+                val correct = sentInOrder(commands, decoded)
+                if (version == PacketEncoder.PROTOCOL_V1) {
+                    v1Lost += commands.size - correct
+                    v1Wrong += decoded.size - correct
+                } else {
+                    v3Lost += commands.size - correct
+                }
+            }
+        }
+        Benchmarks.report(
+            "Per dropped byte: prefix framing loses %.2f frames and makes up %.2f, COBS loses %.2f".format(
+                v1Lost.toDouble() / rounds, v1Wrong.toDouble() / rounds, v3Lost.toDouble() / rounds
+            )
+        )
+        assertTrue(v3Lost <= 2 * rounds)
+    }
+
+    @Test
+    fun benchmarkDecode() {
+        Benchmarks.assumeEnabled()
+        val commands = commands(100_000, Random(1))
+        val bytes = encode(commands, PacketEncoder.PROTOCOL_V3)
+        val cobs = CobsDecoder(PacketEncoder.MAX_FRAME_SIZE_V2)
+        var sum = 0
+        val frameListener = CobsDecoder.FrameListener { _, length -> sum += length }
+        val cobsNanos = Benchmarks.bestOf {
+            cobs.decode(bytes, 0, bytes.size, frameListener)
+            sum
+        }
+        val packets = PacketDecoder(PacketEncoder.PROTOCOL_V3)
+        val commandListener = PacketDecoder.Listener { sum += it }
+        val packetNanos = Benchmarks.bestOf {
+            packets.reset()
+            packets.decode(bytes, 0, bytes.size, commandListener)
+            sum
+        }
+        assertEquals(0L, packets.crcErrors)
+        assertEquals(0L, cobs.errors)
+        Benchmarks.report(
+            "COBS v3: %.1f bytes/frame, unstuffing %.1f ns/frame (%.0f MB/s), with CRC and sequence %.1f ns/frame".format(
+                bytes.size.toDouble() / commands.size, cobsNanos.toDouble() / commands.size,
+                bytes.size * 1e3 / cobsNanos, packetNanos.toDouble() / commands.size
+            )
+        )
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.zerg_pad
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class CommandLogTest {
+
+    private fun text(log: CommandLog): String {
+        val buffer = CharArray(log.maxTextSize)
+        return String(buffer, 0, log.render(buffer))
+    }
+
+    @Test
+    fun rendersNewestFirst() {
+        val log = CommandLog(capacity = 3)
+        assertEquals("", text(log))
+
+        log.add(PacketEncoder.packStick(127, 127, 0))
+        log.add(PacketEncoder.buttonCommand(PacketEncoder.BUTTON_A, true))
+        assertEquals("F0 01 7F\nF1 7F 7F 00", text(log))
+    }
+
+    @Test
+    fun keepsOnlyTheLastCommands() {
+        val log = CommandLog(capacity = 3)
+        for (x in 250..255) log.add(PacketEncoder.packStick(x, 0, 100))
+        assertEquals("F1 FF 00 64\nF1 FE 00 64\nF1 FD 00 64", text(log))
+        assertEquals(log.maxTextSize, text(log).length + 1)
+
+        log.clear()
+        assertEquals("", text(log))
+    }
+
+    @Test
+    fun formatsEveryByteValue() {
+        val bytes = ByteArray(256) { it.toByte() }
+        val chars = CharArray(256 * 3)
+        val length = PacketEncoder.formatHex(bytes, 0, 256, chars, 1)
+        val text = String(chars, 1, length)
+        assertEquals((0 until 256).joinToString(" ") { "%02X".format(it) }, text)
+    }
+}
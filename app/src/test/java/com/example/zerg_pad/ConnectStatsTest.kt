@@ -0,0 +1,30 @@
+package com.example.zerg_pad
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class ConnectStatsTest {
+
+    @Test
+    fun attemptsAreRecordedPerMethod() {
+        val stats = ConnectStats()
+        stats.record(ConnectStats.Method.CACHED_CHANNEL, 80_000_000L, true)
+        stats.record(ConnectStats.Method.CACHED_CHANNEL, 120_000_000L, true)
+        stats.record(ConnectStats.Method.CACHED_CHANNEL, 900_000_000L, false)
+        stats.record(ConnectStats.Method.SDP, 650_000_000L, true)
+
+        assertEquals(3, stats.attempts(ConnectStats.Method.CACHED_CHANNEL))
+        assertEquals(2, stats.successes(ConnectStats.Method.CACHED_CHANNEL))
+        // Failed attempts are counted but do not skew the mean
+        assertEquals(100L, stats.averageMillis(ConnectStats.Method.CACHED_CHANNEL))
+        assertEquals(900L, stats.lastMillis(ConnectStats.Method.CACHED_CHANNEL))
+        assertEquals(650L, stats.averageMillis(ConnectStats.Method.SDP))
+    }
+
+    @Test
+    fun emptyStatsReportZero() {
+        val stats = ConnectStats()
+        assertEquals(0, stats.attempts(ConnectStats.Method.SDP))
+        assertEquals(0L, stats.averageMillis(ConnectStats.Method.SDP))
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.zerg_pad
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.io.OutputStream
+import java.net.SocketTimeoutException
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+
+class ConnectionManagerTest {
+
+    private val scope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+    private val events = LinkedBlockingQueue<Pair<ConnectionManager.State, Exception?>>()
+
+    /** Blocks in [open] until [accept] or [close] is called. */
+    private class FakeTransport(private val failWith: IOException? = null) : Transport {
+        private val released = CountDownLatch(1)
+        val opening = CountDownLatch(1)
+        @Volatile var closed = false
+        @Volatile private var accepted = false
+
+        fun accept() {
+            accepted = true
+            released.countDown()
+        }
+
+        override fun open(): OutputStream {
+            failWith?.let { throw it }
+            opening.countDown()
+            released.await()
+            if (!accepted) throw IOException("closed")
+            return ByteArrayOutputStream()
+        }
+
+        override val isOpen: Boolean
+            get() = accepted && !closed
+
+        override fun close() {
+            closed = true
+            released.countDown()
+        }
+    }
+
+    private fun manager(timeoutMillis: Long = 5000L, backoff: ReconnectBackoff? = null) =
+        ConnectionManager(scope, timeoutMillis, backoff) { state, error -> events.add(state to error) }
+
+    private fun nextEvent(): Pair<ConnectionManager.State, Exception?> =
+        events.poll(2, TimeUnit.SECONDS) ?: throw AssertionError("no state change")
+
+    @After
+    fun tearDown() {
+        scope.cancel()
+    }
+
+    @Test
+    fun connectReturnsImmediatelyAndReportsConnected() {
+        val manager = manager()
+        val link = FakeTransport()
+
+        manager.connect { link }
+        assertEquals(ConnectionManager.State.CONNECTING, nextEvent().first)
+        assertNull(manager.outputStream)
+
+        link.accept()
+        assertEquals(ConnectionManager.State.CONNECTED to null, nextEvent())
+        assertTrue(manager.isConnected)
+        assertTrue(manager.outputStream != null)
+    }
+
+    @Test
+    fun slowConnectIsAbortedAfterTimeout() {
+        val manager = manager(timeoutMillis = 50L)
+        val link = FakeTransport()
+
+        manager.connect { link }
+        assertEquals(ConnectionManager.State.CONNECTING, nextEvent().first)
+        val (state, error) = nextEvent()
+        assertEquals(ConnectionManager.State.IDLE, state)
+        assertTrue(error is SocketTimeoutException)
+        assertTrue(link.closed)
+    }
+
+    @Test
+    fun failedConnectReportsError() {
+        val manager = manager()
+        manager.connect { FakeTransport(IOException("refused")) }
+        assertEquals(ConnectionManager.State.CONNECTING, nextEvent().first)
+        val (state, error) = nextEvent()
+        assertEquals(ConnectionManager.State.IDLE, state)
+        assertEquals("refused", error?.message)
+    }
+
+    @Test
+    fun cancelAbortsRunningAttempt() {
+        val manager = manager()
+        val link = FakeTransport()
+        manager.connect { link }
+        assertEquals(ConnectionManager.State.CONNECTING, nextEvent().first)
+        assertTrue(link.opening.await(2, TimeUnit.SECONDS))
+
+        manager.cancel()
+        assertEquals(ConnectionManager.State.IDLE to null, nextEvent())
+        assertTrue(link.closed)
+        // The aborted attempt must not report anything afterwards
+        assertNull(events.poll(100, TimeUnit.MILLISECONDS))
+    }
+
+    @Test
+    fun failedAttemptsAreRetriedWithBackoff() {
+        val manager = manager(backoff = ReconnectBackoff(initialMillis = 10L, maxMillis = 40L))
+        val good = FakeTransport()
+        val links = ArrayDeque(listOf(FakeTransport(IOException("refused")), FakeTransport(IOException("refused")), good))
+        manager.connect { links.removeFirst() }
+
+        assertEquals(ConnectionManager.State.CONNECTING, nextEvent().first)
+        assertEquals(ConnectionManager.State.RECONNECTING, nextEvent().first)
+        assertEquals(ConnectionManager.State.RECONNECTING, nextEvent().first)
+        good.accept()
+        assertEquals(ConnectionManager.State.CONNECTED to null, nextEvent())
+
+        // A lost link drops the stream at once and is reconnected without any call
+        val again = FakeTransport()
+        links.add(again)
+        again.accept()
+        manager.markDegraded()
+        assertEquals(ConnectionManager.State.DEGRADED, nextEvent().first)
+        assertNull(manager.outputStream)
+        assertTrue(good.closed)
+        assertEquals(ConnectionManager.State.RECONNECTING, nextEvent().first)
+        assertEquals(ConnectionManager.State.CONNECTED, nextEvent().first)
+    }
+
+    @Test
+    fun degradedLinkReconnectsAndCloseIsFinal() {
+        val manager = manager()
+        val first = FakeTransport()
+        var next = first
+        manager.connect { next }
+        nextEvent()
+        first.accept()
+        assertEquals(ConnectionManager.State.CONNECTED, nextEvent().first)
+
+        manager.markDegraded()
+        assertEquals(ConnectionManager.State.DEGRADED, nextEvent().first)
+
+        val second = FakeTransport()
+        next = second
+        manager.reconnect()
+        assertEquals(ConnectionManager.State.RECONNECTING, nextEvent().first)
+        assertTrue(first.closed)
+        second.accept()
+        assertEquals(ConnectionManager.State.CONNECTED, nextEvent().first)
+
+        manager.close()
+        assertEquals(ConnectionManager.State.CLOSED, nextEvent().first)
+        assertTrue(second.closed)
+        manager.connect { FakeTransport() }
+        assertEquals(ConnectionManager.State.CLOSED, manager.state)
+        assertNull(events.poll(100, TimeUnit.MILLISECONDS))
+    }
+}
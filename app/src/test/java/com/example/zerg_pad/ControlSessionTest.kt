@@ -0,0 +1,258 @@
+package com.example.zerg_pad
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.ByteArrayOutputStream
+import java.io.OutputStream
+import java.lang.management.ManagementFactory
+
+class ControlSessionTest {
+
+    private val commands = mutableListOf<Int>()
+
+    private fun session(deadzonePercent: Int = 15, filterAlpha: Float = 1f, responseCurve: Float = 0.03f) = ControlSession(
+        ControlSession.Config(deadzonePercent = deadzonePercent, filterAlpha = filterAlpha, responseCurve = responseCurve),
+        CoroutineScope(Dispatchers.Unconfined),
+        object : ControlSession.Listener {
+            override fun onCommandSent(command: Int) {
+                commands.add(command)
+            }
+        }
+    )
+
+    @Test
+    fun insideDeadzoneStickIsCentered() {
+        val session = session(deadzonePercent = 15)
+        session.onJoystickAxes(0.14f, 0f, 0L)
+        assertEquals(PacketEncoder.packStick(127, 127, 0), session.currentStickState)
+        assertEquals(0, session.rotatedAngle(90, 14))
+    }
+
+    @Test
+    fun axesAreMappedToProtocolAxes() {
+        val session = session(deadzonePercent = 3, responseCurve = 0f)
+        // View reports 90° for "right", the protocol expects 0°
+        assertEquals(0, session.rotatedAngle(90, 100))
+        session.onJoystickAxes(1f, 0f, 0L)
+        assertEquals(PacketEncoder.packStick(253, 127, 100), session.currentStickState)
+
+        // Straight up: Y decreases
+        session.onJoystickAxes(0f, 1f, 0L)
+        assertEquals(PacketEncoder.packStick(127, 1, 100), session.currentStickState)
+
+        session.onJoystickAxes(0.01f, 0f, 0L)
+        assertEquals(PacketEncoder.packStick(127, 127, 0), session.currentStickState)
+    }
+
+    @Test
+    fun filterSmoothsAndResetsAtCenter() {
+        val session = session(filterAlpha = 0.5f, responseCurve = 0f)
+        session.onJoystickAxes(1f, 0f, 0L)
+        assertEquals(190, PacketEncoder.stickX(session.currentStickState))
+
+        session.onJoystickAxes(0f, 0f, 1_000_000L)
+        session.onJoystickAxes(1f, 0f, 2_000_000L)
+        assertEquals(190, PacketEncoder.stickX(session.currentStickState))
+    }
+
+    @Test
+    fun lowLatencyModeLeadsTheFilteredStick() {
+        val plain = session(filterAlpha = 0.25f)
+        val predicted = session(filterAlpha = 0.25f)
+        predicted.lowLatencyMode = true
+
+        // Stick swept towards the right edge at 240 Hz
+        for (i in 0 until 12) {
+            val t = i * 4_166_667L
+            plain.onJoystickAxes((20 + i * 5) / 100f, 0f, t)
+            predicted.onJoystickAxes((20 + i * 5) / 100f, 0f, t)
+        }
+        val plainX = PacketEncoder.stickX(plain.currentStickState)
+        val predictedX = PacketEncoder.stickX(predicted.currentStickState)
+        assertTrue("$predictedX should lead $plainX", predictedX > plainX)
+    }
+
+    @Test
+    fun touchToWriteIsAllocationFree() {
+        // Not the recording listener of session(): boxing the commands would allocate
+        val session = ControlSession(
+            ControlSession.Config(deadzonePercent = 3, filterAlpha = 0.5f),
+            CoroutineScope(Dispatchers.Unconfined),
+            object : ControlSession.Listener {}
+        )
+        val stream = object : OutputStream() {
+            var bytes = 0L
+
+            override fun write(b: Int) {
+                bytes++
+            }
+
+            override fun write(b: ByteArray, off: Int, len: Int) {
+                bytes += len
+            }
+        }
+        var time = 0L
+        // Touch sample, transmit tick and write, with a button change every 16 frames
+        fun sendFrames(count: Int) {
+            for (i in 0 until count) {
+                time += 4_166_667L
+                session.onJoystickAxes(((i % 200) - 100) / 100f, ((i * 7 % 200) - 100) / 100f, time)
+                if (i % 16 == 0) session.onButton(PacketEncoder.BUTTON_A, (i and 32) == 0)
+                session.transmitNow(time, stream)
+            }
+        }
+        val threadBean = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+        fun allocatedBytes() = threadBean.getThreadAllocatedBytes(Thread.currentThread().id)
+
+        sendFrames(20_000) // warm-up (JIT, class loading)
+        val start = allocatedBytes()
+        val measurementCost = allocatedBytes() - start
+
+        val before = allocatedBytes()
+        val bytesBefore = stream.bytes
+        sendFrames(100_000)
+        val allocated = allocatedBytes() - before - measurementCost
+
+        assertTrue("nothing written", stream.bytes - bytesBefore > 100_000)
+        assertTrue("$allocated bytes allocated over 100000 frames", allocated < 1024)
+    }
+
+    @Test
+    fun buttonsAreReportedAsCommandsOnlyWhileConnected() {
+        val session = session()
+        // Dropped by the writer, so not shown either
+        session.onButton(PacketEncoder.BUTTON_Y, true)
+        assertEquals(emptyList<Int>(), commands)
+
+        session.connect {
+            object : Transport {
+                override fun open(): OutputStream = ByteArrayOutputStream()
+                override val isOpen = true
+                override fun close() {}
+            }
+        }
+        assertTrue(awaitUntil(2000) { session.isConnected })
+        session.onButton(PacketEncoder.BUTTON_X, true)
+        session.onButton(PacketEncoder.BUTTON_X, false)
+        assertEquals(
+            listOf(
+                PacketEncoder.buttonCommand(PacketEncoder.BUTTON_X, true),
+                PacketEncoder.buttonCommand(PacketEncoder.BUTTON_X, false)
+            ),
+            commands
+        )
+        session.close()
+    }
+
+    @Test
+    fun reconnectResendsCurrentStateOnce() {
+        val scope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+        val session = ControlSession(ControlSession.Config(), scope, object : ControlSession.Listener {})
+        val wire = ByteArrayOutputStream()
+        session.start()
+
+        // Pressed and released while there is no link: only the current state is sent later
+        session.onJoystickAxes(0f, 0f, System.nanoTime())
+        session.onButton(PacketEncoder.BUTTON_A, true)
+        session.onButton(PacketEncoder.BUTTON_B, true)
+        session.onButton(PacketEncoder.BUTTON_B, false)
+        session.connect {
+            object : Transport {
+                override fun open(): OutputStream = wire
+                override val isOpen = true
+                override fun close() {}
+            }
+        }
+
+        val expected = byteArrayOf(
+            0xF0.toByte(), 0x02, 0x00,
+            0xF0.toByte(), 0x01, 0x7F,
+            0xF1.toByte(), 0x7F, 0x7F, 0x00
+        )
+        awaitUntil(2000) { synchronized(wire) { wire.size() } >= expected.size }
+        session.close()
+        scope.cancel()
+        assertArrayEquals(expected, synchronized(wire) { wire.toByteArray() }.copyOf(expected.size))
+        assertEquals(1, session.touchToSendLatency.count)
+        // However the writer batched them, v1 frames are 3 or 4 bytes each
+        assertTrue(session.packetsPerWrite >= 1.0)
+        assertTrue(session.bytesPerWrite / session.packetsPerWrite in 3.0..4.0)
+    }
+
+    @Test
+    fun reconnectReleasesButtonsThatAreNotHeld() {
+        val scope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+        val session = ControlSession(ControlSession.Config(), scope, object : ControlSession.Listener {})
+        val wires = List(2) { ByteArrayOutputStream() }
+        var opened = 0
+        val transport = {
+            val wire = wires[opened++]
+            object : Transport {
+                override fun open(): OutputStream = wire
+                override val isOpen = true
+                override fun close() {}
+            }
+        }
+        session.start()
+        session.connect(transport)
+        awaitUntil(2000) { session.isConnected }
+
+        // Released while connected; the write of that release may have been lost with the link
+        session.onButton(PacketEncoder.BUTTON_B, true)
+        session.onButton(PacketEncoder.BUTTON_B, false)
+        session.connect(transport)
+
+        val expected = byteArrayOf(0xF0.toByte(), 0x02, 0x00)
+        awaitUntil(2000) { synchronized(wires[1]) { wires[1].size() } >= expected.size }
+        session.close()
+        scope.cancel()
+        assertArrayEquals(expected, synchronized(wires[1]) { wires[1].toByteArray() }.copyOf(expected.size))
+    }
+
+    @Test
+    fun buttonChangedDuringReconnectEndsReleased() {
+        val scope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+        val session = ControlSession(ControlSession.Config(), scope, object : ControlSession.Listener {})
+        session.start()
+        repeat(100) { round ->
+            val wire = ByteArrayOutputStream()
+            session.connect {
+                object : Transport {
+                    override fun open(): OutputStream = wire
+                    override val isOpen = true
+                    override fun close() {}
+                }
+            }
+            // Pressed and released while resync() may be sending its snapshot
+            val deadline = System.currentTimeMillis() + 2000
+            var pressed = false
+            while ((!session.isConnected || !pressed) && System.currentTimeMillis() < deadline) {
+                pressed = !pressed
+                session.onButton(PacketEncoder.BUTTON_A, pressed)
+            }
+            if (pressed) session.onButton(PacketEncoder.BUTTON_A, false)
+
+            val release = PacketEncoder.buttonCommand(PacketEncoder.BUTTON_A, false)
+            fun lastButton(): Int? {
+                val bytes = synchronized(wire) { wire.toByteArray() }
+                var last: Int? = null
+                PacketDecoder(PacketEncoder.PROTOCOL_V1).decode(bytes, 0, bytes.size) {
+                    if (it and PacketEncoder.COMMAND_BUTTON != 0) last = it
+                }
+                return last
+            }
+            awaitUntil(2000) { lastButton() == release }
+            // Let a late press, if any, reach the wire
+            Thread.sleep(10)
+            assertEquals("round $round", release, lastButton())
+        }
+        session.close()
+        scope.cancel()
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.zerg_pad
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class DurationStatsTest {
+
+    @Test
+    fun tracksMeanAndMax() {
+        val stats = DurationStats()
+        stats.record(1_000_000L)
+        stats.record(3_000_000L)
+        stats.record(2_000_000L)
+
+        assertEquals(3, stats.count)
+        assertEquals(2000L, stats.averageMicros)
+        assertEquals(3000L, stats.maxMicros)
+
+        stats.reset()
+        assertEquals(0, stats.count)
+        assertEquals(0L, stats.averageMicros)
+    }
+}
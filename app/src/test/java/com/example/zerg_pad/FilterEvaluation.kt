@@ -0,0 +1,178 @@
+package com.example.zerg_pad
+
+import java.io.File
+import java.io.InputStream
+import java.util.Random
+import kotlin.math.abs
+import kotlin.math.roundToInt
+import kotlin.math.sqrt
+
+/**
+ * Offline evaluation of stick filters on touch traces: one wire axis, sampled with
+ * timestamps, alongside the position the finger actually intended.
+ */
+object FilterEvaluation {
+    /** Largest deviation in wire units that still counts as digitizer noise of a held finger. */
+    const val HOLD_TOLERANCE = 4
+
+    class Trace(val timesNanos: LongArray, val measured: IntArray, val intended: IntArray) {
+        val size get() = timesNanos.size
+    }
+
+    /**
+     * [jitter]: RMS deviation of the output from its mean within each hold of the finger,
+     * in wire units. [lagMillis]: time shift that best aligns the output with the intended
+     * position while it moves.
+     */
+    class Result(val jitter: Double, val lagMillis: Int)
+
+    /**
+     * Reads a trace recorded as `timeMillis,measured[,intended]` lines. Without an
+     * intended column it is estimated from the measured one, see [estimateIntended].
+     */
+    fun parse(lines: List<String>): Trace {
+        val rows = lines.map { it.trim() }.filter { it.isNotEmpty() && !it.startsWith("#") }.map { it.split(',') }
+        val measured = IntArray(rows.size) { rows[it][1].trim().toInt() }
+        return Trace(
+            LongArray(rows.size) { (rows[it][0].trim().toDouble() * 1_000_000).toLong() },
+            measured,
+            if (rows.all { it.size > 2 }) IntArray(rows.size) { rows[it][2].trim().toInt() }
+            else estimateIntended(measured)
+        )
+    }
+
+    /**
+     * Intended position for a trace that only has the measured one. The finger counts as
+     * holding while each sample stays within [HOLD_TOLERANCE] of the mean of the hold so
+     * far, and the hold's mean is taken as what it meant; a sample further off starts a new
+     * hold, so while the finger moves the estimate follows the samples one by one.
+     */
+    fun estimateIntended(measured: IntArray): IntArray {
+        val intended = IntArray(measured.size)
+        var start = 0
+        var sum = 0L
+        for (i in 0..measured.size) {
+            val count = i - start
+            if (i == measured.size || (count > 0 && abs(measured[i] * count - sum) > HOLD_TOLERANCE * count)) {
+                if (count > 0) intended.fill((sum.toDouble() / count).roundToInt(), start, i)
+                start = i
+                sum = 0L
+            }
+            if (i < measured.size) sum += measured[i]
+        }
+        return intended
+    }
+
+    /**
+     * Reads one axis ([axisY] or X) of the [TraceRecorder.RAW_SAMPLE] records in a trace
+     * file written by [TraceRecorder.writeTo]. A recording has no intended position, so it
+     * is estimated, see [estimateIntended].
+     */
+    fun fromRecording(input: InputStream, axisY: Boolean = false): Trace {
+        val times = ArrayList<Long>()
+        val measured = ArrayList<Int>()
+        var start = 0L
+        TraceRecorder.decode(input) { timeNanos, type, x, y, _ ->
+            if (type == TraceRecorder.RAW_SAMPLE) {
+                if (times.isEmpty()) start = timeNanos
+                times.add(timeNanos - start)
+                measured.add(if (axisY) y else x)
+            }
+        }
+        val samples = measured.toIntArray()
+        return Trace(times.toLongArray(), samples, estimateIntended(samples))
+    }
+
+    /** A pulled `trace.bin` ([fromRecording]) or a text trace ([parse]). */
+    fun read(file: File, axisY: Boolean = false): Trace =
+        if (file.name.endsWith(".bin")) file.inputStream().use { fromRecording(it, axisY) }
+        else parse(file.readLines())
+
+    /**
+     * Synthetic stand-in for a recording at [rateHz]: holds with digitizer noise, a fast
+     * flick across the stick and a slow drift back.
+     */
+    fun syntheticTrace(rateHz: Int = 240, noise: Double = 1.5, seed: Long = 1): Trace {
+        val random = Random(seed)
+        val periodNanos = 1_000_000_000L / rateHz
+        val times = ArrayList<Long>()
+        val intended = ArrayList<Double>()
+        fun segment(millis: Int, from: Double, to: Double) {
+            val count = millis * rateHz / 1000
+            for (i in 0 until count) {
+                times.add(times.size * periodNanos)
+                intended.add(from + (to - from) * i / count)
+            }
+        }
+        segment(1000, 190.0, 190.0)
+        segment(80, 190.0, 60.0)
+        segment(500, 60.0, 60.0)
+        segment(1000, 60.0, 160.0)
+        segment(500, 160.0, 160.0)
+        return Trace(
+            times.toLongArray(),
+            IntArray(intended.size) { (intended[it] + random.nextGaussian() * noise).roundToInt().coerceIn(0, 255) },
+            IntArray(intended.size) { intended[it].roundToInt() }
+        )
+    }
+
+    /** Feeds [trace] through a fresh filter from [newFilter] and scores the output. */
+    fun evaluate(trace: Trace, newFilter: () -> (Int, Long) -> Int): Result {
+        val filter = newFilter()
+        val output = IntArray(trace.size) { filter(trace.measured[it], trace.timesNanos[it]) }
+        return Result(jitter(trace, output), lagMillis(trace, output))
+    }
+
+    // Samples more than 300 ms into a hold, so the settling after a move is not counted
+    private fun jitter(trace: Trace, output: IntArray): Double {
+        var squaredDeviations = 0.0
+        var total = 0
+        var sum = 0.0
+        var sumSquares = 0.0
+        var count = 0
+        var stillSince = 0L
+        for (i in 0..trace.size) {
+            val moved = i == trace.size || (i > 0 && trace.intended[i] != trace.intended[i - 1])
+            if (moved) {
+                // Close the current hold
+                if (count > 0) squaredDeviations += sumSquares - sum * sum / count
+                total += count
+                sum = 0.0
+                sumSquares = 0.0
+                count = 0
+                if (i == trace.size) break
+                stillSince = trace.timesNanos[i]
+            }
+            if (trace.timesNanos[i] - stillSince < 300_000_000L) continue
+            sum += output[i]
+            sumSquares += output[i].toDouble() * output[i]
+            count++
+        }
+        return if (total == 0) 0.0 else sqrt(squaredDeviations.coerceAtLeast(0.0) / total)
+    }
+
+    private fun lagMillis(trace: Trace, output: IntArray): Int {
+        var best = 0
+        var bestError = Double.MAX_VALUE
+        for (shift in 0..150) {
+            val shiftNanos = shift * 1_000_000L
+            var error = 0.0
+            var count = 0
+            var j = 0
+            for (i in trace.timesNanos.indices) {
+                if (i == 0 || trace.intended[i] == trace.intended[i - 1]) continue
+                // Intended position [shift] ms before sample i
+                val target = trace.timesNanos[i] - shiftNanos
+                while (j + 1 < trace.size && trace.timesNanos[j + 1] <= target) j++
+                if (trace.timesNanos[j] > target) continue
+                error += abs(output[i] - trace.intended[j])
+                count++
+            }
+            if (count > 0 && error / count < bestError) {
+                bestError = error / count
+                best = shift
+            }
+        }
+        return best
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.zerg_pad
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.lang.management.ManagementFactory
+
+class InputPipelineTest {
+
+    private val center = PacketEncoder.packStick(127, 127, 0)
+
+    @Test
+    fun responseCurveMatchesViewPower() {
+        val pipeline = InputPipeline(ResponseCurveStage(), QuantizerStage())
+        // r * (1 + 0.03 * r): 50% of the radius reports 51 power, as in ZergJoystickView
+        assertEquals(51, PacketEncoder.stickPower(pipeline.process(0.5f, 0f, 0L)))
+        assertEquals(PacketEncoder.packStick(253, 127, 100), pipeline.process(0.98f, 0f, 0L))
+    }
+
+    @Test
+    fun deadzoneCentersAndResetsLaterStages() {
+        val pipeline = InputPipeline.standard(deadzonePercent = 15, responseCurve = 0f, smoothing = LowPassStage(0.5f))
+        assertEquals(center, pipeline.process(0.14f, 0f, 0L))
+
+        assertEquals(190, PacketEncoder.stickX(pipeline.process(1f, 0f, 0L)))
+        assertEquals(center, pipeline.process(0f, 0.1f, 1_000_000L))
+        // The filter starts over from the centre
+        assertEquals(190, PacketEncoder.stickX(pipeline.process(1f, 0f, 2_000_000L)))
+    }
+
+    @Test
+    fun changeThresholdHoldsSmallMoves() {
+        val pipeline = InputPipeline(QuantizerStage(), ChangeThresholdStage(5))
+        val first = pipeline.process(0.5f, 0f, 0L)
+        assertEquals(first, pipeline.process(0.52f, 0.01f, 0L))
+        assertTrue(pipeline.process(0.6f, 0f, 0L) != first)
+        assertEquals(center, InputPipeline(DeadzoneStage(15), QuantizerStage(), ChangeThresholdStage(5)).let {
+            it.process(0.2f, 0f, 0L)
+            it.process(0.1f, 0f, 0L)
+        })
+    }
+
+    @Test
+    fun processingDoesNotAllocate() {
+        val threads = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+        val pipeline = InputPipeline.standard(deadzonePercent = 15, changeThreshold = 2)
+        pipeline.lowLatencyMode = true
+
+        var t = 0L
+        fun sweep() {
+            for (i in 0 until 10_000) {
+                t += 4_166_667L
+                pipeline.process((i % 200) / 100f - 1f, 0.3f, t)
+            }
+        }
+        sweep()
+        val threadId = Thread.currentThread().id
+        val before = threads.getThreadAllocatedBytes(threadId)
+        sweep()
+        val allocated = threads.getThreadAllocatedBytes(threadId) - before
+        // Leaves room for the bookkeeping of the measurement itself
+        assertTrue("$allocated bytes allocated", allocated < 1024)
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.zerg_pad
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import kotlin.math.cos
+import kotlin.math.min
+import kotlin.math.sin
+import kotlin.math.sqrt
+
+/** Checks [JoystickMath] against the double-precision formulas it replaced. */
+class JoystickMathTest {
+
+    // ZergJoystickView.calculateAngle()
+    private fun referenceAngle(dx: Double, dy: Double): Int {
+        if (dx == 0.0 && dy == 0.0) return 0
+        val angle = Math.toDegrees(Math.atan2(-dy, dx))
+        return ((angle + 450) % 360).toInt()
+    }
+
+    // ZergJoystickView.calculatePower()
+    private fun referencePower(dx: Double, dy: Double, radius: Int): Int {
+        val ratio = sqrt(dx * dx + dy * dy) / radius
+        return Math.round(min(1.0, ratio * (1.0 + ratio * 0.03)) * 100).toInt()
+    }
+
+    // ZergJoystickView.onSizeChanged()
+    private fun radiusFor(size: Int) = (size / 2.0 * 0.75).toInt()
+
+    /** Every position within the stick of a view [size] pixels wide, as the view clamps it. */
+    private inline fun forEachPosition(size: Int, action: (dx2: Int, dy2: Int) -> Unit) {
+        val radius = radiusFor(size)
+        for (x in 0 until size) {
+            for (y in 0 until size) {
+                val dx2 = 2 * x - size
+                val dy2 = 2 * y - size
+                if (dx2.toLong() * dx2 + dy2.toLong() * dy2 <= 4L * (radius + 1) * (radius + 1)) action(dx2, dy2)
+            }
+        }
+    }
+
+    @Test
+    fun angleMatchesAtan2() {
+        for (size in intArrayOf(301, 600, 1081)) {
+            forEachPosition(size) { dx2, dy2 ->
+                assertEquals("$dx2/$dy2 in $size", referenceAngle(dx2 / 2.0, dy2 / 2.0), JoystickMath.angle(dx2, dy2))
+            }
+        }
+    }
+
+    @Test
+    fun powerMatchesSqrt() {
+        for (size in intArrayOf(1, 2, 301, 600, 1081)) {
+            val radius = radiusFor(size)
+            val table = JoystickMath.PowerTable(radius)
+            forEachPosition(size) { dx2, dy2 ->
+                assertEquals("$dx2/$dy2 in $size", referencePower(dx2 / 2.0, dy2 / 2.0, radius), table.power(dx2, dy2))
+            }
+        }
+    }
+
+    @Test
+    fun benchmarkAgainstDoublePath() {
+        val size = 1081
+        val radius = radiusFor(size)
+        // A finger circling the stick while pushing in and out, as half-pixel offsets packed in two shorts
+        val samples = IntArray(200_000) { i ->
+            val r = radius * (0.5 + 0.5 * sin(i / 500.0))
+            val dx2 = (2 * r * cos(i / 90.0)).toInt()
+            val dy2 = (2 * r * sin(i / 90.0)).toInt()
+            (dx2 shl 16) or (dy2 and 0xFFFF)
+        }
+        val table = JoystickMath.PowerTable(radius)
+
+        val doublePath = {
+            var sum = 0
+            for (sample in samples) {
+                val dx = (sample shr 16) / 2.0
+                val dy = (sample.toShort().toInt()) / 2.0
+                val angle = referenceAngle(dx, dy)
+                val power = referencePower(dx, dy, radius)
+                sum += angle + power
+            }
+            sum
+        }
+        val fixedPath = {
+            var sum = 0
+            for (sample in samples) {
+                val dx2 = sample shr 16
+                val dy2 = sample.toShort().toInt()
+                val angle = JoystickMath.angle(dx2, dy2)
+                val power = table.power(dx2, dy2)
+                sum += angle + power
+            }
+            sum
+        }
+
+        // Warm up both, then keep the best of several runs
+        assertEquals(doublePath(), fixedPath())
+        Benchmarks.assumeEnabled()
+        val doubleNanos = Benchmarks.bestOf(doublePath)
+        val fixedNanos = Benchmarks.bestOf(fixedPath)
+        Benchmarks.report(
+            "Joystick math: double %.1f ns/sample, fixed-point %.1f ns/sample".format(
+                doubleNanos.toDouble() / samples.size, fixedNanos.toDouble() / samples.size
+            )
+        )
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.zerg_pad
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class LowPassFilterTest {
+
+    private val framePeriod = 1_000_000_000L / LowPassFilter.NOMINAL_RATE_HZ
+
+    @Test
+    fun atNominalRateEachSampleIsWeightedWithAlpha() {
+        val timed = LowPassFilter(0.25f)
+        timed.reset(PacketEncoder.JOYSTICK_CENTER)
+        var expected = PacketEncoder.JOYSTICK_CENTER.toFloat()
+        for (i in 0 until 30) {
+            expected = 0.25f * 250 + 0.75f * expected
+            assertEquals(Math.round(expected), timed.filter(250, i * framePeriod))
+        }
+    }
+
+    @Test
+    fun responseDoesNotDependOnInputRate() {
+        val slow = LowPassFilter(0.25f)
+        val fast = LowPassFilter(0.25f)
+        slow.filter(127, 0L)
+        fast.filter(127, 0L)
+
+        // 100 ms of a step input at 60 Hz and at 240 Hz
+        var slowOut = 0
+        var fastOut = 0
+        for (i in 1..6) slowOut = slow.filter(250, i * framePeriod)
+        for (i in 1..24) fastOut = fast.filter(250, i * framePeriod / 4)
+        assertEquals(slowOut.toDouble(), fastOut.toDouble(), 1.0)
+    }
+
+    @Test
+    fun duplicateTimestampDoesNotMoveOutput() {
+        val filter = LowPassFilter(0.5f)
+        val first = filter.filter(200, 1000L)
+        assertEquals(first, filter.filter(0, 1000L))
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.zerg_pad
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class MotionPredictorTest {
+
+    private val ms = 1_000_000L
+
+    @Test
+    fun extrapolatesConstantVelocity() {
+        val predictor = MotionPredictor(horizonNanos = 20 * ms)
+        // 1 unit per ms along X, standing still on Y
+        for (i in 0..10) predictor.update(100 + i * 4, 60, i * 4 * ms)
+        assertEquals(140 + 20, predictor.predictedX())
+        assertEquals(60, predictor.predictedY())
+    }
+
+    @Test
+    fun leadIsCappedAndClampedToRange() {
+        val predictor = MotionPredictor(horizonNanos = 100 * ms, maxLead = 10)
+        for (i in 0..10) predictor.update(200 + i * 5, 50 - i * 5, i * ms)
+        assertEquals(255, predictor.predictedX())
+        assertEquals(0, predictor.predictedY())
+    }
+
+    @Test
+    fun resetForgetsVelocity() {
+        val predictor = MotionPredictor(horizonNanos = 20 * ms)
+        predictor.update(0, 0, 0L)
+        predictor.update(50, 50, 10 * ms)
+        predictor.reset()
+        predictor.update(127, 127, 500 * ms)
+        assertEquals(127, predictor.predictedX())
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.zerg_pad
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.File
+
+class OneEuroFilterTest {
+
+    @Test
+    fun settlesOnAHeldValue() {
+        val filter = OneEuroFilter()
+        var out = 0
+        for (i in 0 until 480) out = filter.filter(200, i * 4_166_667L)
+        assertEquals(200, out)
+    }
+
+    @Test
+    fun smoothsLessWhenMovingFast() {
+        val filter = OneEuroFilter()
+        filter.filter(127, 0L)
+        // A flick of 100 units in 40 ms gets most of the way within the flick
+        var out = 0
+        for (i in 1..10) out = filter.filter(127 + i * 10, i * 4_000_000L)
+        assertTrue("$out", out > 180)
+
+        val slow = OneEuroFilter()
+        slow.filter(127, 0L)
+        // A 2-unit wobble barely moves the output
+        assertTrue(slow.filter(129, 4_000_000L) <= 128)
+    }
+
+    @Test
+    fun samplesWithinOneMillisecondAllCount() {
+        // A flick: three 240 Hz digitizer samples batched into one move, all in the 2nd ms
+        val times = longArrayOf(2_050_000L, 2_450_000L, 2_900_000L)
+        val values = intArrayOf(180, 220, 255)
+        fun run(timeOf: (Long) -> Long): IntArray {
+            val filter = OneEuroFilter()
+            filter.filter(127, 0L)
+            return IntArray(3) { filter.filter(values[it], timeOf(times[it])) }
+        }
+
+        val nanos = run { it }
+        assertTrue(nanos.toList().toString(), nanos[0] < nanos[1] && nanos[1] < nanos[2])
+        // The same with whole-millisecond times (before API 34): the later samples are lost
+        val millis = run { it / 1_000_000L * 1_000_000L }
+        assertEquals(millis[0], millis[2])
+        assertTrue(nanos[2] > millis[2])
+    }
+
+    @Test
+    fun beatsFixedAlphaOnJitterAndLag() {
+        val trace = FilterEvaluation.syntheticTrace()
+        val (lowPass, oneEuro) = compare("240 Hz synthetic trace", trace, Benchmarks::report)
+        assertTrue(oneEuro.jitter < lowPass.jitter)
+        assertTrue(oneEuro.lagMillis < lowPass.lagMillis)
+    }
+
+    /**
+     * Scores the filters on a real recording: `ZERG_FILTER_TRACE=<path> ./gradlew test`,
+     * with a `trace.bin` pulled after a session started with `--ez record_samples true`,
+     * or a text trace as read by [FilterEvaluation.parse]. Skipped without the variable.
+     */
+    @Test
+    fun evaluatesRecordedTrace() {
+        val path = System.getenv("ZERG_FILTER_TRACE")
+        assumeTrue("ZERG_FILTER_TRACE not set", !path.isNullOrEmpty())
+        val file = File(path!!)
+        val recording = file.name.endsWith(".bin")
+        val trace = FilterEvaluation.read(file)
+        assertTrue("No samples in $file", trace.size > 0)
+        compare(if (recording) "$file, X" else "$file", trace)
+        if (recording) compare("$file, Y", FilterEvaluation.read(file, axisY = true))
+    }
+
+    // Returns the low-pass and one euro results
+    private fun compare(
+        name: String,
+        trace: FilterEvaluation.Trace,
+        report: (String) -> Unit = ::println
+    ): Pair<FilterEvaluation.Result, FilterEvaluation.Result> {
+        val lowPass = FilterEvaluation.evaluate(trace) { LowPassFilter(0.25f).let { f -> { v, t -> f.filter(v, t) } } }
+        val oneEuro = FilterEvaluation.evaluate(trace) { OneEuroFilter().let { f -> { v, t -> f.filter(v, t) } } }
+        val raw = FilterEvaluation.evaluate(trace) { { v, _ -> v } }
+        report("Filter evaluation ($name, ${trace.size} samples): jitter / lag")
+        report("  raw          %.2f units / %d ms".format(raw.jitter, raw.lagMillis))
+        report("  low-pass     %.2f units / %d ms".format(lowPass.jitter, lowPass.lagMillis))
+        report("  one euro     %.2f units / %d ms".format(oneEuro.jitter, oneEuro.lagMillis))
+        return lowPass to oneEuro
+    }
+
+    @Test
+    fun parsesRecordedTraces() {
+        val trace = FilterEvaluation.parse(listOf("# t,x,intended", "0,127,127", "4.2,130,128", ""))
+        assertEquals(2, trace.size)
+        assertEquals(4_200_000L, trace.timesNanos[1])
+        assertEquals(127, trace.intended[0])
+        assertEquals(128, trace.intended[1])
+
+        // Without the intended column, samples within the noise tolerance are one hold
+        val measuredOnly = FilterEvaluation.parse(listOf("0,127", "4,130", "8,126", "12,150", "16,170"))
+        assertEquals(listOf(128, 128, 128, 150, 170), measuredOnly.intended.toList())
+    }
+
+    @Test
+    fun jitterOfTracesWithoutIntendedPosition() {
+        val synthetic = FilterEvaluation.syntheticTrace()
+        val trace = FilterEvaluation.Trace(
+            synthetic.timesNanos, synthetic.measured, FilterEvaluation.estimateIntended(synthetic.measured)
+        )
+        val raw = FilterEvaluation.evaluate(trace) { { v, _ -> v } }
+        val known = FilterEvaluation.evaluate(synthetic) { { v, _ -> v } }
+        // The estimated holds find about the same digitizer noise as the known ones
+        assertEquals(known.jitter, raw.jitter, 0.3)
+        val (lowPass, oneEuro) = compare("240 Hz synthetic trace, estimated holds", trace, Benchmarks::report)
+        assertTrue(oneEuro.jitter < lowPass.jitter)
+        assertTrue(oneEuro.lagMillis < lowPass.lagMillis)
+    }
+
+    @Test
+    fun readsRawSamplesFromASessionTrace() {
+        val recorder = TraceRecorder(64)
+        val session = ControlSession(
+            ControlSession.Config(), CoroutineScope(Dispatchers.Unconfined),
+            object : ControlSession.Listener {
+                override fun onCommandSent(command: Int) {}
+            },
+            recorder
+        )
+        session.recordRawSamples = true
+        session.onJoystickAxes(1f, 0f, 5_000_000L)
+        session.onJoystickAxes(0f, 1f, 9_000_000L)
+        recorder.record(TraceRecorder.BUTTON, 1, 1)
+        val file = ByteArrayOutputStream().also { recorder.writeTo(it) }.toByteArray()
+
+        val x = FilterEvaluation.fromRecording(ByteArrayInputStream(file))
+        assertEquals(2, x.size)
+        assertEquals(4_000_000L, x.timesNanos[1])
+        assertEquals(PacketEncoder.axisToWire(1f), x.measured[0])
+        assertEquals(PacketEncoder.JOYSTICK_CENTER, x.measured[1])
+        // Wire Y points down
+        val y = FilterEvaluation.fromRecording(ByteArrayInputStream(file), axisY = true)
+        assertEquals(PacketEncoder.axisToWire(-1f), y.measured[1])
+    }
+}
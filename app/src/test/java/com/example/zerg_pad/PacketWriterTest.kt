@@ -0,0 +1,100 @@
+package com.example.zerg_pad
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.io.ByteArrayOutputStream
+import java.io.OutputStream
+
+/**
+ * Runs the writer's drain step on the test thread, so ordering and batching can be
+ * checked without a background writer. Allocations are checked along the whole path from
+ * touch to write in [ControlSessionTest].
+ */
+class PacketWriterTest {
+
+    private class CountingStream : OutputStream() {
+        var bytes = 0L
+        var writes = 0
+        val last = ByteArray(PacketWriter.BATCH_CAPACITY)
+
+        override fun write(b: Int) {
+            bytes++
+        }
+
+        override fun write(b: ByteArray, off: Int, len: Int) {
+            System.arraycopy(b, off, last, 0, minOf(len, last.size))
+            bytes += len
+            writes++
+        }
+    }
+
+    @Test
+    fun framesAreWrittenInOrderWithCorrectEncoding() {
+        val stream = CountingStream()
+        val writer = PacketWriter(CoroutineScope(Dispatchers.Unconfined), { stream })
+
+        writer.sendStick(0x80, 0x01, 100)
+        writer.drainPending(stream)
+        assertArrayEquals(byteArrayOf(0xF1.toByte(), 0x80.toByte(), 0x01, 0x64), stream.last.copyOf(4))
+
+        writer.sendButton(PacketEncoder.BUTTON_B, true)
+        writer.drainPending(stream)
+        assertArrayEquals(byteArrayOf(0xF0.toByte(), 0x02, 0x7F), stream.last.copyOf(3))
+    }
+
+    @Test
+    fun pendingFramesArePackedIntoOneWrite() {
+        val stream = CountingStream()
+        val writer = PacketWriter(CoroutineScope(Dispatchers.Unconfined), { stream })
+
+        writer.sendStick(0x10, 0x20, 50)
+        writer.sendButton(PacketEncoder.BUTTON_A, true)
+        writer.sendStick(0x11, 0x21, 51)
+        writer.sendButton(PacketEncoder.BUTTON_A, false)
+        writer.drainPending(stream)
+
+        assertEquals(1, stream.writes)
+        assertArrayEquals(
+            byteArrayOf(
+                0xF0.toByte(), 0x01, 0x7F,
+                0xF0.toByte(), 0x01, 0x00,
+                0xF1.toByte(), 0x11, 0x21, 51
+            ),
+            stream.last.copyOf(10)
+        )
+        assertEquals(3.0, writer.packetsPerWrite, 0.0)
+        assertEquals(10.0, writer.bytesPerWrite, 0.0)
+    }
+
+    @Test
+    fun framesQueuedAfterADiscardSurviveAStaleEmptyLink() {
+        val scope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+        val wire = ByteArrayOutputStream()
+        lateinit var writer: PacketWriter
+        var linkReady = false
+        writer = PacketWriter(scope, {
+            if (!linkReady) {
+                // The link comes up between the writer seeing no stream and dropping the lanes
+                linkReady = true
+                writer.discardQueued()
+                writer.sendButton(PacketEncoder.BUTTON_A, true)
+                null
+            } else {
+                wire
+            }
+        }, batchWindowMillis = 0L)
+        writer.sendStick(1, 2, 3)
+        writer.start()
+
+        val expected = byteArrayOf(0xF0.toByte(), 0x01, 0x7F)
+        awaitUntil(2000) { synchronized(wire) { wire.size() } >= expected.size }
+        writer.close()
+        scope.cancel()
+        assertArrayEquals(expected, synchronized(wire) { wire.toByteArray() })
+    }
+}
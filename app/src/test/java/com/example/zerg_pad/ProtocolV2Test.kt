@@ -0,0 +1,246 @@
+package com.example.zerg_pad
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.net.InetAddress
+import java.net.ServerSocket
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class ProtocolV2Test {
+
+    private fun commands(count: Int) = IntArray(count) { i ->
+        if (i % 5 == 0) PacketEncoder.buttonCommand((1 + i % 8).toByte(), i % 2 == 0)
+        else PacketEncoder.packStick(i and 0xFF, (i * 7) and 0xFF, i % 101)
+    }
+
+    private fun encode(commands: IntArray, version: Int): ByteArray {
+        val out = ByteArray(commands.size * PacketEncoder.MAX_FRAME_SIZE_V2)
+        var length = 0
+        for (i in commands.indices) {
+            length += PacketEncoder.encodeFrame(out, length, commands[i], version, i)
+        }
+        return out.copyOf(length)
+    }
+
+    private fun decode(bytes: ByteArray, decoder: PacketDecoder = PacketDecoder()): List<Int> {
+        val decoded = mutableListOf<Int>()
+        decoder.decode(bytes, 0, bytes.size) { decoded.add(it) }
+        return decoded
+    }
+
+    @Test
+    fun crcIsCrc8Smbus() {
+        val check = "123456789".toByteArray()
+        assertEquals(0xF4, PacketEncoder.crc8(check, 0, check.size))
+    }
+
+    @Test
+    fun framesFollowTheDocumentedLayout() {
+        val frame = ByteArray(PacketEncoder.MAX_FRAME_SIZE_V2)
+        val stick = PacketEncoder.packStick(0x80, 0x01, 100)
+        assertEquals(6, PacketEncoder.encodeFrame(frame, 0, stick, PacketEncoder.PROTOCOL_V2, 0x105))
+        assertArrayEquals(
+            byteArrayOf(0xE1.toByte(), 0x05, 0x80.toByte(), 0x01, 0x64),
+            frame.copyOf(5)
+        )
+        assertEquals(PacketEncoder.crc8(frame, 0, 5), frame[5].toInt() and 0xFF)
+
+        val button = PacketEncoder.buttonCommand(PacketEncoder.BUTTON_B, true)
+        assertEquals(5, PacketEncoder.encodeFrame(frame, 0, button, PacketEncoder.PROTOCOL_V2, 6))
+        assertArrayEquals(byteArrayOf(0xE0.toByte(), 0x06, 0x02, 0x7F), frame.copyOf(4))
+
+        // v1 is unchanged
+        assertEquals(4, PacketEncoder.encodeFrame(frame, 0, stick, PacketEncoder.PROTOCOL_V1, 9))
+        assertArrayEquals(byteArrayOf(0xF1.toByte(), 0x80.toByte(), 0x01, 0x64), frame.copyOf(4))
+    }
+
+    @Test
+    fun decoderRestoresCommandsFromAnyChunking() {
+        val commands = commands(1000)
+        for (version in intArrayOf(PacketEncoder.PROTOCOL_V1, PacketEncoder.PROTOCOL_V2)) {
+            val bytes = encode(commands, version)
+            for (chunk in intArrayOf(1, 3, 7, bytes.size)) {
+                val decoder = PacketDecoder(version)
+                val decoded = mutableListOf<Int>()
+                var offset = 0
+                while (offset < bytes.size) {
+                    val length = minOf(chunk, bytes.size - offset)
+                    decoder.decode(bytes, offset, length) { decoded.add(it) }
+                    offset += length
+                }
+                assertEquals("v$version chunk $chunk", commands.toList(), decoded)
+            }
+        }
+    }
+
+    @Test
+    fun corruptedFramesAreDroppedAndDecodingRecovers() {
+        val commands = commands(40)
+        val clean = encode(commands, PacketEncoder.PROTOCOL_V2)
+        for (position in clean.indices) {
+            for (bit in 0 until 8) {
+                val bytes = clean.copyOf()
+                bytes[position] = (bytes[position].toInt() xor (1 shl bit)).toByte()
+                val decoder = PacketDecoder()
+                val decoded = decode(bytes, decoder)
+
+                // At most the hit frame and the one after it are lost (a CRC byte can look like
+                // a prefix), and nothing the encoder did not send comes out
+                val where = "byte $position bit $bit"
+                assertTrue(where, decoder.crcErrors >= 1 || decoder.skippedBytes >= 1)
+                assertTrue(where, decoded.size >= commands.size - 2)
+                var next = 0
+                for (command in decoded) {
+                    while (next < commands.size && commands[next] != command) next++
+                    assertTrue("$where: unexpected command", next < commands.size)
+                    next++
+                }
+            }
+        }
+    }
+
+    @Test
+    fun sequenceGapsAndRepeatsAreCounted() {
+        val frame = ByteArray(PacketEncoder.MAX_FRAME_SIZE_V2)
+        val stick = PacketEncoder.packStick(1, 2, 3)
+        val decoder = PacketDecoder()
+        val decoded = mutableListOf<Int>()
+        // 255 repeated, 0 and 1 lost, then a failed batch 5, 6, 7 resent whole after 7
+        for (sequence in intArrayOf(254, 255, 255, 2, 3, 4, 5, 6, 7, 5, 6, 7, 8)) {
+            val length = PacketEncoder.encodeFrame(frame, 0, stick, PacketEncoder.PROTOCOL_V2, sequence)
+            decoder.decode(frame, 0, length) { decoded.add(it) }
+        }
+        assertEquals(9, decoded.size)
+        assertEquals(4L, decoder.duplicates)
+        assertEquals(2L, decoder.lostFrames)
+    }
+
+    @Test
+    fun handshakeAgreesOnOfferedVersionOrFallsBack() {
+        fun negotiate(reply: ByteArray?, timeoutMillis: Long = 1000L): Pair<Int, ByteArray> {
+            val sent = ByteArrayOutputStream()
+            val version = ProtocolHandshake.negotiate(
+                reply?.let { ByteArrayInputStream(it) }, sent, PacketEncoder.PROTOCOL_V2, timeoutMillis
+            )
+            return version to sent.toByteArray()
+        }
+
+        val (agreed, hello) = negotiate(byteArrayOf(0xF5.toByte(), 2))
+        assertEquals(PacketEncoder.PROTOCOL_V2, agreed)
+        assertArrayEquals(byteArrayOf(0xF5.toByte(), 2), hello)
+
+        // Boot chatter of the sketch before the reply
+        assertEquals(PacketEncoder.PROTOCOL_V2, negotiate("ready\n".toByteArray() + byteArrayOf(0xF5.toByte(), 2)).first)
+        assertEquals(PacketEncoder.PROTOCOL_V1, negotiate(byteArrayOf(0xF5.toByte(), 1)).first)
+        assertEquals(PacketEncoder.PROTOCOL_V1, negotiate(byteArrayOf(0xF5.toByte(), 9)).first)
+
+        // An old sketch never answers
+        val start = System.nanoTime()
+        assertEquals(PacketEncoder.PROTOCOL_V1, negotiate(ByteArray(0), timeoutMillis = 50L).first)
+        assertTrue(System.nanoTime() - start < 1_000_000_000L)
+
+        // Write-only link: nothing is sent
+        val (writeOnly, nothing) = negotiate(null)
+        assertEquals(PacketEncoder.PROTOCOL_V1, writeOnly)
+        assertEquals(0, nothing.size)
+    }
+
+    @Test
+    fun sessionSwitchesToV2WhenTheRobotAnswers() {
+        val scope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+        val server = ServerSocket(0, 1, InetAddress.getLoopbackAddress())
+        val decoded = mutableListOf<Int>()
+        val decoder = PacketDecoder()
+        val robot = Thread {
+            server.accept().use { client ->
+                val input = client.getInputStream()
+                // Hello, then the answer
+                input.read()
+                input.read()
+                client.getOutputStream().write(byteArrayOf(0xF5.toByte(), PacketEncoder.PROTOCOL_V2.toByte()))
+                val buffer = ByteArray(256)
+                while (true) {
+                    val n = input.read(buffer)
+                    if (n < 0) break
+                    synchronized(decoded) { decoder.decode(buffer, 0, n) { decoded.add(it) } }
+                }
+            }
+        }.apply {
+            isDaemon = true
+            start()
+        }
+
+        try {
+            val connected = CountDownLatch(1)
+            val session = ControlSession(
+                ControlSession.Config(protocolVersion = PacketEncoder.PROTOCOL_V2),
+                scope,
+                object : ControlSession.Listener {
+                    override fun onConnectionStateChanged(state: ConnectionManager.State, error: Exception?) {
+                        if (state == ConnectionManager.State.CONNECTED) connected.countDown()
+                    }
+                }
+            )
+            session.start()
+            session.connect { TcpTransport("127.0.0.1", server.localPort) }
+            assertTrue(connected.await(5, TimeUnit.SECONDS))
+
+            for (i in 0 until 20) {
+                session.onButton(PacketEncoder.BUTTON_X, i % 2 == 0)
+            }
+            awaitUntil(5000) { synchronized(decoded) { decoded.count { it and PacketEncoder.COMMAND_BUTTON != 0 } } >= 20 }
+            session.close()
+            robot.join(5000)
+
+            val buttons = synchronized(decoded) { decoded.filter { it and PacketEncoder.COMMAND_BUTTON != 0 } }
+            assertEquals(List(20) { PacketEncoder.buttonCommand(PacketEncoder.BUTTON_X, it % 2 == 0) }, buttons)
+            assertEquals(0L, decoder.crcErrors)
+            assertEquals(0L, decoder.lostFrames)
+        } finally {
+            scope.cancel()
+            server.close()
+        }
+    }
+
+    @Test
+    fun benchmarkEncodeAndDecode() {
+        Benchmarks.assumeEnabled()
+        val commands = commands(100_000)
+        val buffer = ByteArray(commands.size * PacketEncoder.MAX_FRAME_SIZE_V2)
+        for (version in intArrayOf(PacketEncoder.PROTOCOL_V1, PacketEncoder.PROTOCOL_V2)) {
+            var length = 0
+            val encodeNanos = Benchmarks.bestOf {
+                length = 0
+                for (i in commands.indices) {
+                    length += PacketEncoder.encodeFrame(buffer, length, commands[i], version, i)
+                }
+                length
+            }
+            val decoder = PacketDecoder(version)
+            var sum = 0
+            val listener = PacketDecoder.Listener { sum += it }
+            val decodeNanos = Benchmarks.bestOf {
+                decoder.reset()
+                decoder.decode(buffer, 0, length, listener)
+                sum
+            }
+            assertEquals(0L, decoder.crcErrors)
+            Benchmarks.report(
+                "Protocol v%d: %d bytes/frame, encode %.1f ns/frame, decode %.1f ns/frame (%.0f MB/s)".format(
+                    version, length / commands.size,
+                    encodeNanos.toDouble() / commands.size, decodeNanos.toDouble() / commands.size,
+                    length * 1e3 / decodeNanos
+                )
+            )
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.zerg_pad
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.random.Random
+
+class ReconnectBackoffTest {
+
+    @Test
+    fun delaysGrowExponentiallyWithinJitterBounds() {
+        val backoff = ReconnectBackoff(initialMillis = 100L, maxMillis = 1000L, random = Random(42))
+        val ceilings = listOf(100L, 200L, 400L, 800L, 1000L, 1000L)
+        for (ceiling in ceilings) {
+            val delay = backoff.nextDelayMillis()
+            assertTrue("$delay not in [${ceiling / 2}, $ceiling]", delay in ceiling / 2..ceiling)
+        }
+    }
+
+    @Test
+    fun resetStartsOver() {
+        val backoff = ReconnectBackoff(initialMillis = 100L, maxMillis = 1000L, random = Random(1))
+        repeat(10) { backoff.nextDelayMillis() }
+        backoff.reset()
+        assertTrue(backoff.nextDelayMillis() <= 100L)
+    }
+
+    @Test
+    fun jitterSpreadsDelays() {
+        val backoff = ReconnectBackoff(initialMillis = 1000L, maxMillis = 1000L, random = Random(7))
+        val delays = (1..50).map { backoff.nextDelayMillis() }.toSet()
+        assertTrue(delays.size > 10)
+        assertEquals(1000L, ReconnectBackoff(1000L, 1000L, FixedRandom).nextDelayMillis())
+    }
+
+    private object FixedRandom : Random() {
+        override fun nextBits(bitCount: Int): Int = 0
+        override fun nextLong(until: Long): Long = until - 1
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.zerg_pad
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+
+class TraceRecorderTest {
+
+    private fun records(recorder: TraceRecorder): List<List<Int>> {
+        val records = mutableListOf<List<Int>>()
+        recorder.forEach { _, type, a, b, c -> records.add(listOf(type, a, b, c)) }
+        return records
+    }
+
+    @Test
+    fun keepsTheNewestRecordsInOrder() {
+        val recorder = TraceRecorder(capacity = 8)
+        for (i in 0 until 20) recorder.record(TraceRecorder.BUTTON, i, -i, Int.MIN_VALUE)
+
+        val records = records(recorder)
+        assertEquals(8, records.size)
+        assertEquals(listOf(TraceRecorder.BUTTON, 12, -12, Int.MIN_VALUE), records.first())
+        assertEquals(listOf(TraceRecorder.BUTTON, 19, -19, Int.MIN_VALUE), records.last())
+
+        recorder.enabled = false
+        recorder.record(TraceRecorder.BUTTON)
+        assertEquals(8, records(recorder).size)
+        recorder.clear()
+        assertEquals(0, records(recorder).size)
+    }
+
+    @Test
+    fun fileRoundTripDecodesToText() {
+        val recorder = TraceRecorder(capacity = 16)
+        recorder.record(TraceRecorder.JOYSTICK, 90, 100, ZergJoystickView.RIGHT)
+        recorder.record(TraceRecorder.CONNECTION, ConnectionManager.State.CONNECTED.ordinal)
+        recorder.record(TraceRecorder.JOYSTICK_RELEASED)
+
+        val file = ByteArrayOutputStream()
+        recorder.writeTo(file)
+        assertEquals(4 + 3 * 24, file.size())
+
+        val text = StringBuilder()
+        TraceRecorder.decode(ByteArrayInputStream(file.toByteArray()), TraceRecorder.format(text))
+        val lines = text.lines().filter { it.isNotEmpty() }
+        assertEquals(3, lines.size)
+        assertTrue(lines[0], lines[0].contains("angle  90 power 100") && lines[0].contains("X: 253 Y: 127"))
+        assertTrue(lines[1], lines[1].endsWith("CONNECTED"))
+        assertTrue(lines[2], lines[2].contains("released"))
+    }
+
+    @Test
+    fun concurrentWritersNeverProduceTornRecords() {
+        val recorder = TraceRecorder(capacity = 256)
+        val writers = (1..4).map { id ->
+            Thread {
+                for (i in 0 until 200_000) recorder.record(id, i, i, i)
+            }
+        }
+        writers.forEach { it.start() }
+        var seen = 0
+        while (writers.any { it.isAlive }) {
+            recorder.forEach { _, type, a, b, c ->
+                assertTrue(type in 1..4)
+                assertTrue("$a $b $c", a == b && b == c)
+                seen++
+            }
+        }
+        writers.forEach { it.join() }
+        assertEquals(256, records(recorder).size)
+        assertTrue(seen > 0)
+    }
+}
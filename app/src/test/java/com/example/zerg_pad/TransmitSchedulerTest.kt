@@ -0,0 +1,62 @@
+package com.example.zerg_pad
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class TransmitSchedulerTest {
+
+    private var state = TransmitScheduler.NO_STATE
+    private val sent = mutableListOf<Int>()
+
+    private fun scheduler(rateHz: Int = 50, keepAliveMillis: Long = 250L) =
+        TransmitScheduler(CoroutineScope(Dispatchers.Unconfined), rateHz, keepAliveMillis, { state }) { sent.add(it) }
+
+    @Test
+    fun sendsOnlyChangedStateUntilKeepAliveExpires() {
+        val scheduler = scheduler()
+        state = PacketEncoder.packStick(127, 127, 0)
+
+        scheduler.tick(0L)
+        scheduler.tick(20_000_000L)
+        scheduler.tick(40_000_000L)
+        assertEquals(1, sent.size)
+
+        state = PacketEncoder.packStick(200, 60, 80)
+        scheduler.tick(60_000_000L)
+        assertEquals(2, sent.size)
+
+        // Held still: refreshed once the keep-alive period has passed
+        scheduler.tick(300_000_000L)
+        assertEquals(2, sent.size)
+        scheduler.tick(310_000_000L)
+        assertEquals(listOf(state, state), sent.subList(1, 3))
+    }
+
+    @Test
+    fun invalidateResendsUnchangedStateOnce() {
+        val scheduler = scheduler()
+        state = PacketEncoder.packStick(127, 127, 0)
+        scheduler.tick(0L)
+
+        scheduler.invalidate()
+        scheduler.tick(20_000_000L)
+        scheduler.tick(40_000_000L)
+        assertEquals(2, sent.size)
+    }
+
+    @Test
+    fun noStateIsNeverTransmitted() {
+        val scheduler = scheduler()
+        scheduler.tick(0L)
+        scheduler.tick(1_000_000_000L)
+        assertEquals(0, sent.size)
+    }
+
+    @Test
+    fun rateIsClampedToSupportedRange() {
+        assertEquals(1_000_000_000L / TransmitScheduler.MAX_RATE_HZ, scheduler(rateHz = 1000).periodNanos)
+        assertEquals(1_000_000_000L / TransmitScheduler.MIN_RATE_HZ, scheduler(rateHz = 1).periodNanos)
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.zerg_pad
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.ByteArrayOutputStream
+import java.net.InetAddress
+import java.net.ServerSocket
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+/** Runs the joystick-to-wire path over [TcpTransport] against a local receiver. */
+class TransportPipelineTest {
+
+    private val scope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+    private val server = ServerSocket(0, 1, InetAddress.getLoopbackAddress())
+    private val received = ByteArrayOutputStream()
+
+    private val receiver = Thread {
+        server.accept().use { client ->
+            val input = client.getInputStream()
+            val buffer = ByteArray(4096)
+            while (true) {
+                val n = input.read(buffer)
+                if (n < 0) break
+                synchronized(received) { received.write(buffer, 0, n) }
+            }
+        }
+    }.apply {
+        isDaemon = true
+        start()
+    }
+
+    @After
+    fun tearDown() {
+        scope.cancel()
+        server.close()
+    }
+
+    private fun transport() = TcpTransport("127.0.0.1", server.localPort)
+
+    private fun receivedBytes(): ByteArray = synchronized(received) { received.toByteArray() }
+
+    private fun awaitReceived(predicate: (ByteArray) -> Boolean) {
+        awaitUntil(5000) { predicate(receivedBytes()) }
+    }
+
+    /** Commands in the byte stream, see [PacketEncoder.encodeCommand]. */
+    private fun decode(bytes: ByteArray): List<Int> {
+        val commands = mutableListOf<Int>()
+        PacketDecoder(PacketEncoder.PROTOCOL_V1).decode(bytes, 0, bytes.size) { commands.add(it) }
+        return commands
+    }
+
+    @Test
+    fun sessionDeliversEveryButtonAndTheFinalStick() {
+        val connected = CountDownLatch(1)
+        val session = ControlSession(ControlSession.Config(), scope, object : ControlSession.Listener {
+            override fun onConnectionStateChanged(state: ConnectionManager.State, error: Exception?) {
+                if (state == ConnectionManager.State.CONNECTED) connected.countDown()
+            }
+        })
+        session.start()
+        session.connect { transport() }
+        assertTrue(connected.await(5, TimeUnit.SECONDS))
+
+        val buttons = mutableListOf<Int>()
+        for (i in 0 until 5000) {
+            val radians = Math.toRadians((i % 360).toDouble())
+            val magnitude = (20 + i % 80) / 100.0
+            session.onJoystickAxes(
+                (magnitude * Math.cos(radians)).toFloat(), (magnitude * Math.sin(radians)).toFloat(), System.nanoTime()
+            )
+            if (i % 10 == 0) {
+                val pressed = (i / 10) % 2 == 0
+                session.onButton(PacketEncoder.BUTTON_A, pressed)
+                buttons.add(PacketEncoder.buttonCommand(PacketEncoder.BUTTON_A, pressed))
+            }
+        }
+        session.onJoystickAxes(0f, 1f, System.nanoTime())
+        val finalStick = session.currentStickState
+
+        awaitReceived { bytes -> decode(bytes).lastOrNull() == finalStick }
+        session.close()
+
+        val commands = decode(receivedBytes())
+        assertEquals(buttons, commands.filter { it and PacketEncoder.COMMAND_BUTTON != 0 })
+        assertEquals(finalStick, commands.last())
+    }
+
+    @Test
+    fun writerSustainsHighPacketRate() {
+        val frames = 100_000
+        val transport = transport()
+        val stream = transport.open()
+        val writer = PacketWriter(scope, { stream }, batchWindowMillis = 0L)
+        writer.start()
+
+        val start = System.nanoTime()
+        for (i in 0 until frames) {
+            writer.sendButton(PacketEncoder.BUTTON_B, i % 2 == 0)
+        }
+        awaitReceived { it.size >= frames * PacketEncoder.BUTTON_FRAME_SIZE }
+        val seconds = (System.nanoTime() - start) / 1e9
+        writer.close()
+        transport.close()
+
+        val commands = decode(receivedBytes())
+        assertEquals(frames, commands.size)
+        for (i in 0 until frames) {
+            assertEquals(PacketEncoder.buttonCommand(PacketEncoder.BUTTON_B, i % 2 == 0), commands[i])
+        }
+        Benchmarks.report(
+            "TCP loopback: %d frames in %.1f ms, %.0f frames/s, %.1f frames/write".format(
+                frames, seconds * 1000, frames / seconds, writer.packetsPerWrite
+            )
+        )
+    }
+}
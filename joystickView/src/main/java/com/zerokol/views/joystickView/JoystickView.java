@@ -22,7 +22,8 @@ public class JoystickView extends View implements Runnable {
     public final static int LEFT_FRONT = 2;
     // Variables
     private OnJoystickMoveListener onJoystickMoveListener; // Listener
-    private Thread thread = new Thread(this);
+    // Repeats run() on the UI thread every loopInterval while the stick is held
+    private boolean repeating = false;
     private long loopInterval = DEFAULT_LOOP_INTERVAL;
     private int xPosition = 0; // Touch x position
     private int yPosition = 0; // Touch y position
@@ -154,21 +155,22 @@ public class JoystickView extends View implements Runnable {
             yPosition = (int) ((yPosition - centerY) * joystickRadius / abs + centerY);
         }
         invalidate();
+        if (event.getAction() == MotionEvent.ACTION_CANCEL) {
+            stopRepeating();
+        }
         if (event.getAction() == MotionEvent.ACTION_UP) {
             xPosition = (int) centerX;
             yPosition = (int) centerY;
-            thread.interrupt();
+            stopRepeating();
             if (onJoystickMoveListener != null)
                 onJoystickMoveListener.onValueChanged(getAngle(), getPower(),
                         getDirection());
         }
         if (onJoystickMoveListener != null
                 && event.getAction() == MotionEvent.ACTION_DOWN) {
-            if (thread != null && thread.isAlive()) {
-                thread.interrupt();
-            }
-            thread = new Thread(this);
-            thread.start();
+            stopRepeating();
+            repeating = true;
+            postDelayed(this, loopInterval);
             if (onJoystickMoveListener != null)
                 onJoystickMoveListener.onValueChanged(getAngle(), getPower(),
                         getDirection());
@@ -251,21 +253,25 @@ public class JoystickView extends View implements Runnable {
         public void onValueChanged(int angle, int power, int direction);
     }
 
+    @Override
+    protected void onDetachedFromWindow() {
+        stopRepeating();
+        super.onDetachedFromWindow();
+    }
+
+    private void stopRepeating() {
+        repeating = false;
+        removeCallbacks(this);
+    }
+
+    // Repeat callback, posted to the view's own handler; reschedules itself
     @Override
     public void run() {
-        while (!Thread.interrupted()) {
-            post(new Runnable() {
-                public void run() {
-                    if (onJoystickMoveListener != null)
-                        onJoystickMoveListener.onValueChanged(getAngle(),
-                                getPower(), getDirection());
-                }
-            });
-            try {
-                Thread.sleep(loopInterval);
-            } catch (InterruptedException e) {
-                break;
-            }
-        }
+        if (!repeating)
+            return;
+        if (onJoystickMoveListener != null)
+            onJoystickMoveListener.onValueChanged(getAngle(), getPower(),
+                    getDirection());
+        postDelayed(this, loopInterval);
     }
 }